@@ -0,0 +1,260 @@
+package cs601.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Throughput and latency benchmark of cs601.concurrent.ReentrantReadWriteLock
+ * and StripedReadWriteLock against java.util.concurrent.locks.ReentrantReadWriteLock
+ * and StampedLock.
+ *
+ * Every combination of lock, read/write mix (100/0, 95/5, 50/50, 0/100),
+ * reentrant depth and thread count (1, 2, 4, ... up to the max) is run for a
+ * warmup period and then measured. Each operation takes the lock depth times,
+ * reads or increments a few shared counters, and releases it. Every 64th
+ * operation is timed to get latency percentiles.
+ *
+ * Usage: java cs601.concurrent.LockBenchmark [measureMillis] [maxThreads]
+ */
+public class LockBenchmark {
+
+	private static final int[] READ_PERCENTS = { 100, 95, 50, 0 };
+	private static final int[] DEPTHS = { 1, 2, 4 };
+	private static final int SAMPLE_EVERY = 64;
+
+	/**
+	 * Common interface of the benchmarked locks. Stamps are only used by StampedLock.
+	 */
+	interface BenchLock {
+		long readLock();
+		void readUnlock(long stamp);
+		long writeLock();
+		void writeUnlock(long stamp);
+		boolean reentrant();
+	}
+
+	static BenchLock cs601Lock(final ReentrantReadWriteLock.Policy policy) {
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(policy);
+		return new BenchLock() {
+			public long readLock() { lock.lockRead(); return 0L; }
+			public void readUnlock(long stamp) { lock.unlockRead(); }
+			public long writeLock() { lock.lockWrite(); return 0L; }
+			public void writeUnlock(long stamp) { lock.unlockWrite(); }
+			public boolean reentrant() { return true; }
+			public String toString() { return "cs601-" + policy.name().toLowerCase(); }
+		};
+	}
+
+	static BenchLock stripedLock() {
+		final StripedReadWriteLock lock = new StripedReadWriteLock();
+		return new BenchLock() {
+			public long readLock() { lock.lockRead(); return 0L; }
+			public void readUnlock(long stamp) { lock.unlockRead(); }
+			public long writeLock() { lock.lockWrite(); return 0L; }
+			public void writeUnlock(long stamp) { lock.unlockWrite(); }
+			public boolean reentrant() { return true; }
+			public String toString() { return "cs601-striped"; }
+		};
+	}
+
+	static BenchLock jdkLock(final boolean fair) {
+		final java.util.concurrent.locks.ReentrantReadWriteLock lock =
+				new java.util.concurrent.locks.ReentrantReadWriteLock(fair);
+		return new BenchLock() {
+			public long readLock() { lock.readLock().lock(); return 0L; }
+			public void readUnlock(long stamp) { lock.readLock().unlock(); }
+			public long writeLock() { lock.writeLock().lock(); return 0L; }
+			public void writeUnlock(long stamp) { lock.writeLock().unlock(); }
+			public boolean reentrant() { return true; }
+			public String toString() { return fair ? "jdk-rrwl-fair" : "jdk-rrwl"; }
+		};
+	}
+
+	static BenchLock stampedLock() {
+		final StampedLock lock = new StampedLock();
+		return new BenchLock() {
+			public long readLock() { return lock.readLock(); }
+			public void readUnlock(long stamp) { lock.unlockRead(stamp); }
+			public long writeLock() { return lock.writeLock(); }
+			public void writeUnlock(long stamp) { lock.unlockWrite(stamp); }
+			public boolean reentrant() { return false; }
+			public String toString() { return "jdk-stamped"; }
+		};
+	}
+
+	static List<BenchLock> allLocks() {
+		List<BenchLock> locks = new ArrayList<BenchLock>();
+		for (ReentrantReadWriteLock.Policy policy : ReentrantReadWriteLock.Policy.values()) {
+			locks.add(cs601Lock(policy));
+		}
+		locks.add(stripedLock());
+		locks.add(jdkLock(false));
+		locks.add(jdkLock(true));
+		locks.add(stampedLock());
+		return locks;
+	}
+
+	/**
+	 * Result of one run.
+	 */
+	static final class Result {
+		long ops;
+		long millis;
+		long[] samples;
+
+		double opsPerMs() {
+			return (double) ops / millis;
+		}
+
+		long percentile(double p) {
+			if (samples.length == 0) {
+				return 0L;
+			}
+			int i = (int) Math.min(samples.length - 1, Math.round(p * (samples.length - 1)));
+			return samples[i];
+		}
+	}
+
+	/**
+	 * Runs threads threads against the lock for millis milliseconds.
+	 *
+	 * @param lock
+	 * @param threads
+	 * @param readPercent
+	 * 			- percentage of the operations that read
+	 * @param depth
+	 * 			- how many times each operation takes the lock
+	 * @param millis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	static Result run(final BenchLock lock, int threads, final int readPercent, final int depth, long millis)
+			throws InterruptedException {
+		final long[] shared = new long[8];
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] ops = new long[threads];
+		final int[] sampleCounts = new int[threads];
+		final List<long[]> samples = new ArrayList<long[]>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			final long[] mySamples = new long[1 << 16];
+			samples.add(mySamples);
+			workers[t] = new Thread("bench-" + t) {
+				@Override
+				public void run() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					long[] stamps = new long[depth];
+					long count = 0;
+					int sampled = 0;
+					long sink = 0;
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (running.get()) {
+						boolean read = random.nextInt(100) < readPercent;
+						boolean timed = (count % SAMPLE_EVERY) == 0 && sampled < mySamples.length;
+						long begin = timed ? System.nanoTime() : 0L;
+						if (read) {
+							for (int d = 0; d < depth; d++) {
+								stamps[d] = lock.readLock();
+							}
+							for (int i = 0; i < shared.length; i++) {
+								sink += shared[i];
+							}
+							for (int d = depth - 1; d >= 0; d--) {
+								lock.readUnlock(stamps[d]);
+							}
+						} else {
+							for (int d = 0; d < depth; d++) {
+								stamps[d] = lock.writeLock();
+							}
+							for (int i = 0; i < shared.length; i++) {
+								shared[i]++;
+							}
+							for (int d = depth - 1; d >= 0; d--) {
+								lock.writeUnlock(stamps[d]);
+							}
+						}
+						if (timed) {
+							mySamples[sampled++] = System.nanoTime() - begin;
+						}
+						count++;
+					}
+					ops[id] = count;
+					sampleCounts[id] = sampled;
+					if (sink == 42) {
+						System.out.print("");
+					}
+				}
+			};
+			workers[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		Result result = new Result();
+		result.millis = Math.max(1L, (System.nanoTime() - begin) / 1000000L);
+		int total = 0;
+		for (int t = 0; t < threads; t++) {
+			result.ops += ops[t];
+			total += sampleCounts[t];
+		}
+		result.samples = new long[total];
+		int k = 0;
+		for (int t = 0; t < threads; t++) {
+			System.arraycopy(samples.get(t), 0, result.samples, k, sampleCounts[t]);
+			k += sampleCounts[t];
+		}
+		Arrays.sort(result.samples);
+		return result;
+	}
+
+	/**
+	 * Steps of the thread count: doubles it, but always ends with maxThreads,
+	 * also if it is not a power of two, since full contention is the point
+	 * that matters most.
+	 *
+	 * @param threads
+	 * @param maxThreads
+	 * @return the next thread count, more than maxThreads after the last step
+	 */
+	static int nextThreads(int threads, int maxThreads) {
+		return threads < maxThreads ? Math.min(2 * threads, maxThreads) : maxThreads + 1;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long measureMillis = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long warmupMillis = Math.max(100L, measureMillis / 2);
+
+		System.out.println("lock,readPercent,depth,threads,opsPerMs,p50Nanos,p99Nanos,p999Nanos");
+		for (BenchLock lock : allLocks()) {
+			for (int readPercent : READ_PERCENTS) {
+				for (int depth : DEPTHS) {
+					if (depth > 1 && !lock.reentrant()) {
+						continue;
+					}
+					for (int threads = 1; threads <= maxThreads; threads = nextThreads(threads, maxThreads)) {
+						run(lock, threads, readPercent, depth, warmupMillis);
+						Result r = run(lock, threads, readPercent, depth, measureMillis);
+						System.out.println(String.format("%s,%d,%d,%d,%.1f,%d,%d,%d", lock, readPercent, depth, threads,
+								r.opsPerMs(), r.percentile(0.5), r.percentile(0.99), r.percentile(0.999)));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package cs601.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput benchmark of cs601.concurrent.WorkQueue with jobs that take about
+ * a microsecond, where handing the jobs to the workers is most of the cost.
+ *
+ * Producers submit a fixed number of jobs, one at a time with execute(), in
+ * batches with executeAll(), and, as a baseline, one at a time to a
+ * java.util.concurrent.ThreadPoolExecutor, whose LinkedBlockingQueue takes a
+ * lock for every job. Every combination of producer and worker count (1, 2,
+ * 4, ... up to the max) is run once as warmup and then measured until all
+ * jobs are done.
+ *
+ * Usage: java cs601.concurrent.WorkQueueBenchmark [jobsPerProducer] [maxThreads] [batchSize]
+ */
+public class WorkQueueBenchmark {
+
+	private static final int WORK_ITERATIONS = 200;
+
+	/**
+	 * Common interface of the benchmarked ways to run jobs.
+	 */
+	interface BenchExecutor {
+		void submit(List<Runnable> jobs);
+		void finish() throws InterruptedException;
+	}
+
+	/**
+	 * Makes an executor with the given number of workers.
+	 */
+	interface ExecutorFactory {
+		BenchExecutor create(int workers);
+	}
+
+	static ExecutorFactory workQueue(final boolean batched) {
+		return new ExecutorFactory() {
+			public BenchExecutor create(int workers) {
+				final WorkQueue queue = new WorkQueue(workers);
+				return new BenchExecutor() {
+					public void submit(List<Runnable> jobs) {
+						if (batched) {
+							queue.executeAll(jobs);
+						} else {
+							for (Runnable job : jobs) {
+								queue.execute(job);
+							}
+						}
+					}
+					public void finish() {
+						queue.shutdown();
+						queue.awaitTermination();
+					}
+				};
+			}
+			public String toString() { return batched ? "workqueue-executeAll" : "workqueue-execute"; }
+		};
+	}
+
+	static ExecutorFactory threadPoolExecutor() {
+		return new ExecutorFactory() {
+			public BenchExecutor create(int workers) {
+				final ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>());
+				return new BenchExecutor() {
+					public void submit(List<Runnable> jobs) {
+						for (Runnable job : jobs) {
+							executor.execute(job);
+						}
+					}
+					public void finish() throws InterruptedException {
+						executor.shutdown();
+						executor.awaitTermination(1L, TimeUnit.HOURS);
+					}
+				};
+			}
+			public String toString() { return "jdk-threadpool"; }
+		};
+	}
+
+	static List<ExecutorFactory> allExecutors() {
+		List<ExecutorFactory> executors = new ArrayList<ExecutorFactory>();
+		executors.add(workQueue(false));
+		executors.add(workQueue(true));
+		executors.add(threadPoolExecutor());
+		return executors;
+	}
+
+	/**
+	 * Runs producers producers that each submit jobsPerProducer jobs, and waits
+	 * until all of them are done.
+	 *
+	 * @param factory
+	 * @param producers
+	 * @param workers
+	 * @param jobsPerProducer
+	 * @param batchSize
+	 * 			- number of jobs handed to submit() at once
+	 * @return jobs per millisecond
+	 * @throws InterruptedException
+	 */
+	static double run(ExecutorFactory factory, int producers, int workers, final int jobsPerProducer,
+			final int batchSize) throws InterruptedException {
+		final BenchExecutor executor = factory.create(workers);
+		final LongAdder done = new LongAdder();
+		final Runnable job = new Runnable() {
+			public void run() {
+				// About a microsecond of work
+				long x = System.identityHashCode(this);
+				for (int i = 0; i < WORK_ITERATIONS; i++) {
+					x = x * 6364136223846793005L + 1442695040888963407L;
+				}
+				if (x == 42) {
+					System.out.print("");
+				}
+				done.increment();
+			}
+		};
+		Thread[] threads = new Thread[producers];
+		for (int t = 0; t < producers; t++) {
+			threads[t] = new Thread("producer-" + t) {
+				@Override
+				public void run() {
+					List<Runnable> batch = new ArrayList<Runnable>(batchSize);
+					for (int i = 0; i < jobsPerProducer; i++) {
+						batch.add(job);
+						if (batch.size() == batchSize) {
+							executor.submit(batch);
+							batch.clear();
+						}
+					}
+					if (!batch.isEmpty()) {
+						executor.submit(batch);
+					}
+				}
+			};
+		}
+		long begin = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		executor.finish();
+		long millis = Math.max(1L, (System.nanoTime() - begin) / 1000000L);
+		if (done.sum() != (long) producers * jobsPerProducer) {
+			throw new IllegalStateException(factory + " lost jobs: " + done.sum());
+		}
+		return (double) done.sum() / millis;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int jobsPerProducer = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		System.out.println("executor,producers,workers,batchSize,jobsPerMs");
+		for (ExecutorFactory factory : allExecutors()) {
+			for (int producers = 1; producers <= maxThreads; producers = LockBenchmark.nextThreads(producers, maxThreads)) {
+				for (int workers = 1; workers <= maxThreads; workers = LockBenchmark.nextThreads(workers, maxThreads)) {
+					run(factory, producers, workers, jobsPerProducer / 4, batchSize);
+					double jobsPerMs = run(factory, producers, workers, jobsPerProducer, batchSize);
+					System.out.println(String.format("%s,%d,%d,%d,%.1f", factory, producers, workers, batchSize, jobsPerMs));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package cs601.hotelapp;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Benchmark of reading a large review file with the streaming ReviewReader,
+ * from a stream and from a memory-mapped file, against the json-simple DOM
+ * path that LoadReviewsWorker used before.
+ *
+ * A review file with the given number of reviews is generated, with the
+ * fields of the real files plus some that are not used. Each parser reads it
+ * a few times as warmup and then a few measured times, reporting reviews per
+ * second and the bytes allocated per review by the reading thread (on JVMs
+ * that can count them, otherwise -1).
+ *
+ * Usage: java cs601.hotelapp.ReviewParserBenchmark [reviews] [runs]
+ */
+public class ReviewParserBenchmark {
+
+	/**
+	 * Common interface of the benchmarked parsers.
+	 */
+	interface Parser {
+		/**
+		 * @return number of reviews read
+		 */
+		int parse(Path file) throws IOException;
+	}
+
+	/**
+	 * Stands in for addReview, keeps the values alive like the real handler does.
+	 */
+	static final class Sink implements ReviewReader.Handler {
+		long checksum;
+
+		@Override
+		public void review(String hotelId, String reviewId, int rating, String reviewTitle, String reviewText,
+				boolean isRecom, String date, String username) {
+			checksum += hotelId.length() + reviewId.length() + rating + reviewTitle.length() + reviewText.length()
+					+ (isRecom ? 1 : 0) + date.length() + username.length();
+		}
+	}
+
+	static Parser streaming(final Sink sink) {
+		return new Parser() {
+			public int parse(Path file) throws IOException {
+				try (ReviewReader reader = new ReviewReader(Files.newInputStream(file))) {
+					return reader.read(sink);
+				}
+			}
+			public String toString() { return "streaming"; }
+		};
+	}
+
+	static Parser mapped(final Sink sink) {
+		return new Parser() {
+			public int parse(Path file) throws IOException {
+				try (ReviewReader reader = new ReviewReader(JsonByteReader.map(file))) {
+					return reader.read(sink);
+				}
+			}
+			public String toString() { return "streaming-mapped"; }
+		};
+	}
+
+	static Parser dom(final Sink sink) {
+		return new Parser() {
+			public int parse(Path file) throws IOException {
+				try (FileReader in = new FileReader(file.toFile())) {
+					JSONObject jsonObject = (JSONObject) new JSONParser().parse(in);
+					JSONObject reviewDetails = (JSONObject) jsonObject.get("reviewDetails");
+					JSONObject reviewCollection = (JSONObject) reviewDetails.get("reviewCollection");
+					JSONArray review = (JSONArray) reviewCollection.get("review");
+					for (int i = 0; i < review.size(); i++) {
+						JSONObject reviewObject = (JSONObject) review.get(i);
+						String username = (String) reviewObject.get("userNickname");
+						sink.review((String) reviewObject.get("hotelId"), (String) reviewObject.get("reviewId"),
+								(int) (long) reviewObject.get("ratingOverall"), (String) reviewObject.get("title"),
+								(String) reviewObject.get("reviewText"), "YES".equals(reviewObject.get("isRecommended")),
+								(String) reviewObject.get("reviewSubmissionTime"), username.isEmpty() ? "anonymous" : username);
+					}
+					return review.size();
+				} catch (ParseException e) {
+					throw new IOException(e);
+				}
+			}
+			public String toString() { return "json-simple-dom"; }
+		};
+	}
+
+	/**
+	 * Writes a review file in the format of the real ones.
+	 *
+	 * @param file
+	 * @param reviews
+	 * @throws IOException
+	 */
+	static void generate(Path file, int reviews) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			out.print("{\"reviewDetails\":{\"startIndex\":0,\"numberOfReviewsInThisPage\":" + reviews
+					+ ",\"reviewCollection\":{\"review\":[");
+			for (int i = 0; i < reviews; i++) {
+				if (i > 0) {
+					out.print(',');
+				}
+				out.print("{\"isRecommended\":\"" + (i % 3 == 0 ? "NO" : "YES") + "\",\"reviewId\":\"57b717a4" + i
+						+ "\",\"hotelId\":\"" + (10000 + i % 50) + "\",\"ratingOverall\":" + (1 + i % 5)
+						+ ",\"ratingRoomSize\":3,\"ratingValue\":4,\"title\":\"Review number " + i
+						+ "\",\"reviewText\":\"The room was clean and the staff \\\"very\\\" friendly, breakfast"
+						+ " could have been better. We would stay here again on our next trip to the city.\""
+						+ ",\"userNickname\":\"" + (i % 7 == 0 ? "" : "traveler" + i) + "\""
+						+ ",\"reviewSubmissionTime\":\"2016-06-29T17:50:24Z\",\"userLocation\":\"San Francisco, CA\""
+						+ ",\"photos\":[{\"id\":" + i + ",\"caption\":\"View\"}],\"helpfulCount\":" + (i % 11) + "}");
+			}
+			out.print("]}}}");
+		}
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, -1 if the JVM cannot tell
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int reviews = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Path file = Files.createTempFile("reviews", ".json");
+		try {
+			generate(file, reviews);
+			Sink sink = new Sink();
+			List<Parser> parsers = new ArrayList<Parser>();
+			parsers.add(streaming(sink));
+			parsers.add(mapped(sink));
+			parsers.add(dom(sink));
+
+			System.out.println("parser,fileBytes,reviews,reviewsPerSecond,bytesAllocatedPerReview");
+			for (Parser parser : parsers) {
+				for (int i = 0; i < runs; i++) {
+					parser.parse(file);
+				}
+				long allocatedBefore = allocatedBytes();
+				long begin = System.nanoTime();
+				long read = 0;
+				for (int i = 0; i < runs; i++) {
+					read += parser.parse(file);
+				}
+				long nanos = System.nanoTime() - begin;
+				long allocated = allocatedBefore < 0 ? -1L : (allocatedBytes() - allocatedBefore) / read;
+				System.out.println(String.format("%s,%d,%d,%.0f,%d", parser, Files.size(file), reviews,
+						read * 1e9 / nanos, allocated));
+			}
+			if (sink.checksum == 42) {
+				System.out.print("");
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package cs601.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention and hold time statistics of a ReentrantReadWriteLock. Collected
+ * only while enabled with ReentrantReadWriteLock.setStatisticsEnabled(true);
+ * read them through snapshot().
+ *
+ * Times are kept in histograms with power of two buckets: bucket i counts the
+ * durations d with 2^i <= d < 2^(i+1) nanoseconds (bucket 0 also counts 0).
+ */
+public class LockStatistics {
+
+	/**
+	 * Lock modes statistics are kept for.
+	 */
+	public enum Mode {
+		READ, WRITE, UPGRADE
+	}
+
+	/** Number of histogram buckets, the last one covers everything above ~9 seconds. */
+	public static final int BUCKETS = 34;
+
+	private final LongAdder[] acquisitions;
+	private final LongAdder[] contended;
+	private final LongAdder[][] waitTimes;
+	private final LongAdder[][] holdTimes;
+	private final AtomicInteger maxQueueLength;
+	// Total wait time per thread name
+	private final ConcurrentHashMap<String, Site> waitingThreads;
+	// Write hold time per calling method
+	private final ConcurrentHashMap<String, Site> writeHolders;
+
+	LockStatistics() {
+		int modes = Mode.values().length;
+		acquisitions = newAdders(modes);
+		contended = newAdders(modes);
+		waitTimes = new LongAdder[modes][];
+		holdTimes = new LongAdder[modes][];
+		for (int i = 0; i < modes; i++) {
+			waitTimes[i] = newAdders(BUCKETS);
+			holdTimes[i] = newAdders(BUCKETS);
+		}
+		maxQueueLength = new AtomicInteger();
+		waitingThreads = new ConcurrentHashMap<String, Site>();
+		writeHolders = new ConcurrentHashMap<String, Site>();
+	}
+
+	private static LongAdder[] newAdders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * @param nanos
+	 * @return the histogram bucket of a duration
+	 */
+	static int bucket(long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	void acquired(Mode mode) {
+		acquisitions[mode.ordinal()].increment();
+	}
+
+	void waited(Mode mode, Thread thread, long nanos) {
+		contended[mode.ordinal()].increment();
+		waitTimes[mode.ordinal()][bucket(nanos)].increment();
+		record(waitingThreads, thread.getName(), nanos);
+	}
+
+	void held(Mode mode, long nanos) {
+		holdTimes[mode.ordinal()][bucket(nanos)].increment();
+	}
+
+	void heldForWrite(String site, long nanos) {
+		held(Mode.WRITE, nanos);
+		if (site != null) {
+			record(writeHolders, site, nanos);
+		}
+	}
+
+	void queueLength(int length) {
+		int max;
+		while (length > (max = maxQueueLength.get())) {
+			if (maxQueueLength.compareAndSet(max, length)) {
+				return;
+			}
+		}
+	}
+
+	private static void record(ConcurrentHashMap<String, Site> sites, String name, long nanos) {
+		Site site = sites.get(name);
+		if (site == null) {
+			Site newSite = new Site();
+			site = sites.putIfAbsent(name, newSite);
+			if (site == null) {
+				site = newSite;
+			}
+		}
+		site.add(nanos);
+	}
+
+	/**
+	 * @return a copy of the current values
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Count, total and maximum of the durations recorded for one thread or method.
+	 */
+	private static final class Site {
+		final LongAdder count = new LongAdder();
+		final LongAdder total = new LongAdder();
+		final AtomicLong max = new AtomicLong();
+
+		void add(long nanos) {
+			count.increment();
+			total.add(nanos);
+			long m;
+			while (nanos > (m = max.get())) {
+				if (max.compareAndSet(m, nanos)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * One line of a top list in the snapshot.
+	 */
+	public static final class Entry {
+		private final String name;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+
+		Entry(String name, long count, long totalNanos, long maxNanos) {
+			this.name = name;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		/** @return thread name or method, e.g. cs601.hotelapp.ThreadSafeHotelData.mergeReviews */
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": count=" + count + " total=" + totalNanos / 1000 + "us max=" + maxNanos / 1000 + "us";
+		}
+	}
+
+	/**
+	 * Immutable copy of the statistics at one point in time.
+	 */
+	public static final class Snapshot {
+		private final long[] acquisitions;
+		private final long[] contended;
+		private final long[][] waitTimes;
+		private final long[][] holdTimes;
+		private final int maxQueueLength;
+		private final List<Entry> waitingThreads;
+		private final List<Entry> writeHolders;
+
+		private Snapshot(LockStatistics stats) {
+			int modes = Mode.values().length;
+			acquisitions = sum(stats.acquisitions);
+			contended = sum(stats.contended);
+			waitTimes = new long[modes][];
+			holdTimes = new long[modes][];
+			for (int i = 0; i < modes; i++) {
+				waitTimes[i] = sum(stats.waitTimes[i]);
+				holdTimes[i] = sum(stats.holdTimes[i]);
+			}
+			maxQueueLength = stats.maxQueueLength.get();
+			waitingThreads = sortedByTotal(stats.waitingThreads);
+			writeHolders = sortedByTotal(stats.writeHolders);
+		}
+
+		private static long[] sum(LongAdder[] adders) {
+			long[] values = new long[adders.length];
+			for (int i = 0; i < adders.length; i++) {
+				values[i] = adders[i].sum();
+			}
+			return values;
+		}
+
+		private static List<Entry> sortedByTotal(Map<String, Site> sites) {
+			List<Entry> entries = new ArrayList<Entry>();
+			for (Map.Entry<String, Site> e : sites.entrySet()) {
+				Site site = e.getValue();
+				entries.add(new Entry(e.getKey(), site.count.sum(), site.total.sum(), site.max.get()));
+			}
+			Collections.sort(entries, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry a, Entry b) {
+					return Long.compare(b.totalNanos, a.totalNanos);
+				}
+			});
+			return Collections.unmodifiableList(entries);
+		}
+
+		/** @return number of acquisitions in the given mode, including reentrant ones */
+		public long getAcquisitions(Mode mode) {
+			return acquisitions[mode.ordinal()];
+		}
+
+		/** @return number of acquisitions that had to queue up and wait */
+		public long getContendedAcquisitions(Mode mode) {
+			return contended[mode.ordinal()];
+		}
+
+		/** @return wait time histogram of the contended acquisitions, see BUCKETS */
+		public long[] getWaitTimeHistogram(Mode mode) {
+			return waitTimes[mode.ordinal()].clone();
+		}
+
+		/** @return hold time histogram of the outermost holds, see BUCKETS */
+		public long[] getHoldTimeHistogram(Mode mode) {
+			return holdTimes[mode.ordinal()].clone();
+		}
+
+		/** @return the largest number of threads seen waiting at the same time */
+		public int getMaxQueueLength() {
+			return maxQueueLength;
+		}
+
+		/**
+		 * @param n
+		 * @return the n threads that waited longest in total
+		 */
+		public List<Entry> getTopWaitingThreads(int n) {
+			return waitingThreads.subList(0, Math.min(n, waitingThreads.size()));
+		}
+
+		/**
+		 * @param n
+		 * @return the n methods that held the write lock longest in total
+		 */
+		public List<Entry> getTopWriteHolders(int n) {
+			return writeHolders.subList(0, Math.min(n, writeHolders.size()));
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Mode mode : Mode.values()) {
+				sb.append(mode).append(": acquisitions=").append(getAcquisitions(mode))
+						.append(" contended=").append(getContendedAcquisitions(mode)).append(System.lineSeparator());
+			}
+			sb.append("max queue length: ").append(maxQueueLength).append(System.lineSeparator());
+			sb.append("top waiting threads:").append(System.lineSeparator());
+			for (Entry e : getTopWaitingThreads(5)) {
+				sb.append("  ").append(e).append(System.lineSeparator());
+			}
+			sb.append("top write lock holders:").append(System.lineSeparator());
+			for (Entry e : getTopWriteHolders(5)) {
+				sb.append("  ").append(e).append(System.lineSeparator());
+			}
+			return sb.toString();
+		}
+	}
+}
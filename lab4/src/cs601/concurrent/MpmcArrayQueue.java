@@ -0,0 +1,245 @@
+package cs601.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for multiple producers and multiple consumers,
+ * backed by a ring buffer (the algorithm of Dmitry Vyukov's bounded MPMC queue).
+ *
+ * Every slot has a sequence number that tells whether it is ready to be
+ * written (sequence == position) or to be read (sequence == position + 1).
+ * Producers claim a position with a compare-and-set on tail, consumers with a
+ * compare-and-set on head, so producers and consumers do not contend with each
+ * other, and offering or polling does not allocate.
+ *
+ * offerAll() and drain() move a run of elements with a single compare-and-set,
+ * which saves most of the contention when the elements are small jobs.
+ *
+ * @param <E>
+ * 			- type of the elements, null elements are not allowed
+ */
+public class MpmcArrayQueue<E> {
+
+	private final AtomicReferenceArray<E> buffer;
+	private final AtomicLongArray sequence;
+	private final int mask;
+	// Next position to read
+	private final PaddedAtomicLong head;
+	// Next position to write
+	private final PaddedAtomicLong tail;
+
+	/**
+	 * Constructor for MpmcArrayQueue.
+	 *
+	 * @param capacity
+	 * 			- maximum number of elements, rounded up to a power of two
+	 */
+	public MpmcArrayQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		int n = 1;
+		while (n < capacity) {
+			n <<= 1;
+		}
+		buffer = new AtomicReferenceArray<E>(n);
+		sequence = new AtomicLongArray(n);
+		for (int i = 0; i < n; i++) {
+			sequence.set(i, i);
+		}
+		mask = n - 1;
+		head = new PaddedAtomicLong();
+		tail = new PaddedAtomicLong();
+	}
+
+	/**
+	 * @return maximum number of elements
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Adds an element at the tail, unless the queue is full.
+	 *
+	 * @param e
+	 * @return true if added, false if the queue is full
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long pos = tail.get();
+		for (;;) {
+			int index = (int) pos & mask;
+			long diff = sequence.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer.lazySet(index, e);
+					// Publishes the element to consumers
+					sequence.lazySet(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				// The slot still holds the element of the previous round
+				return false;
+			} else {
+				// Another producer took this position
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the element at the head.
+	 *
+	 * @return the element, or null if the queue is empty
+	 */
+	public E poll() {
+		long pos = head.get();
+		for (;;) {
+			int index = (int) pos & mask;
+			long diff = sequence.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					E e = buffer.get(index);
+					buffer.lazySet(index, null);
+					// Hands the slot to the producer of the next round
+					sequence.lazySet(index, pos + mask + 1);
+					return e;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				// Empty, or the producer of this position has not published yet
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Adds a run of elements at the tail, as many as there is room for, with
+	 * one compare-and-set.
+	 *
+	 * @param elements
+	 * @param offset
+	 * 			- index of the first element to add
+	 * @param count
+	 * 			- number of elements to add
+	 * @return the number of elements added, from offset on; less than count if the queue got full
+	 */
+	public int offerAll(E[] elements, int offset, int count) {
+		for (int i = 0; i < count; i++) {
+			if (elements[offset + i] == null) {
+				throw new NullPointerException();
+			}
+		}
+		if (count <= 0) {
+			return 0;
+		}
+		long pos = tail.get();
+		for (;;) {
+			// Count the free slots from pos on
+			int n = 0;
+			while (n < count && sequence.get((int) (pos + n) & mask) == pos + n) {
+				n++;
+			}
+			if (n == 0) {
+				if (sequence.get((int) pos & mask) < pos) {
+					// The slot still holds the element of the previous round
+					return 0;
+				}
+				// Another producer took this position
+				pos = tail.get();
+				continue;
+			}
+			if (tail.compareAndSet(pos, pos + n)) {
+				for (int i = 0; i < n; i++) {
+					int index = (int) (pos + i) & mask;
+					buffer.lazySet(index, elements[offset + i]);
+					// Publishes the element to consumers
+					sequence.lazySet(index, pos + i + 1);
+				}
+				return n;
+			}
+			pos = tail.get();
+		}
+	}
+
+	/**
+	 * Removes a run of elements from the head with one compare-and-set. Stops
+	 * at an element that has not been published yet.
+	 *
+	 * @param out
+	 * 			- receives the elements, from index 0 on
+	 * @param max
+	 * 			- maximum number of elements to remove, at most out.length
+	 * @return the number of elements removed, 0 if the queue is empty
+	 */
+	public int drain(E[] out, int max) {
+		if (max <= 0) {
+			return 0;
+		}
+		long pos = head.get();
+		for (;;) {
+			// Count the published slots from pos on
+			int n = 0;
+			while (n < max && sequence.get((int) (pos + n) & mask) == pos + n + 1) {
+				n++;
+			}
+			if (n == 0) {
+				if (sequence.get((int) pos & mask) < pos + 1) {
+					// Empty, or the producer of this position has not published yet
+					return 0;
+				}
+				pos = head.get();
+				continue;
+			}
+			if (head.compareAndSet(pos, pos + n)) {
+				for (int i = 0; i < n; i++) {
+					int index = (int) (pos + i) & mask;
+					out[i] = buffer.get(index);
+					buffer.lazySet(index, null);
+					// Hands the slot to the producer of the next round
+					sequence.lazySet(index, pos + i + mask + 1);
+				}
+				return n;
+			}
+			pos = head.get();
+		}
+	}
+
+	/**
+	 * Returns true if no position has been claimed by a producer without being
+	 * taken by a consumer. An element being published counts as present.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * @return the number of elements, only an estimate while the queue is in use
+	 */
+	public int size() {
+		long h = head.get();
+		long t = tail.get();
+		return (int) Math.max(0L, Math.min(t - h, (long) capacity()));
+	}
+
+	/**
+	 * An AtomicLong on a cache line of its own, so the head and tail counters do
+	 * not slow each other down.
+	 */
+	@SuppressWarnings("unused")
+	private static final class PaddedAtomicLong extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		long p1, p2, p3, p4, p5, p6, p7;
+		long q1, q2, q3, q4, q5, q6, q7, q8;
+	}
+}
@@ -0,0 +1,135 @@
+package cs601.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the MpmcArrayQueue.
+ */
+public class MpmcArrayQueueTest {
+
+	// Producer and consumer threads each, and elements per producer
+	private static final int PRODUCERS = 4;
+	private static final int PER_PRODUCER = 10000;
+
+	@Test
+	public void testFifoAndCapacity() {
+		String testName = "testFifoAndCapacity";
+		MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<Integer>(3);
+
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Capacity not rounded up to a power of two. %n", testName), 4, queue.capacity());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+						" Offer failed before the queue was full. %n", testName), queue.offer(i));
+			}
+			Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+					" Offer to a full queue succeeded. %n", testName), queue.offer(4));
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong size. %n", testName), 4, queue.size());
+			for (int i = 0; i < 4; i++) {
+				Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+						" Elements not in FIFO order. %n", testName), Integer.valueOf(i), queue.poll());
+			}
+			Assert.assertNull(String.format("%n" + "Test Case: %s%n" +
+					" Poll of an empty queue returned an element. %n", testName), queue.poll());
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" Queue not empty. %n", testName), queue.isEmpty());
+		}
+	}
+
+	@Test
+	public void testConcurrentProducersAndConsumers() {
+		checkProducersAndConsumers("testConcurrentProducersAndConsumers", false);
+	}
+
+	/**
+	 * Producers offer 1..PER_PRODUCER each while as many consumers poll, then
+	 * checks that every element arrived exactly once. A thread that cannot go
+	 * on yields, so the test runs quickly on a single processor too.
+	 *
+	 * @param testName
+	 * @param batched
+	 * 			- true to move the elements with offerAll and drain, in batches
+	 * 			of different sizes on both sides
+	 */
+	private static void checkProducersAndConsumers(String testName, final boolean batched) {
+		final MpmcArrayQueue<Long> queue = new MpmcArrayQueue<Long>(64);
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		Thread[] threads = new Thread[2 * PRODUCERS];
+		for (int t = 0; t < threads.length; t++) {
+			final boolean producer = t % 2 == 0;
+			threads[t] = new Thread() {
+				public void run() {
+					Long[] batch = new Long[batched ? (producer ? 7 : 5) : 1];
+					if (producer) {
+						for (long i = 1; i <= PER_PRODUCER; i += batch.length) {
+							int n = (int) Math.min(batch.length, PER_PRODUCER - i + 1);
+							for (int k = 0; k < n; k++) {
+								batch[k] = i + k;
+							}
+							int offered = 0;
+							while (offered < n) {
+								int added = batched ? queue.offerAll(batch, offered, n - offered)
+										: queue.offer(batch[0]) ? 1 : 0;
+								if (added == 0) {
+									Thread.yield();
+								}
+								offered += added;
+							}
+						}
+					} else {
+						while (count.get() < (long) PRODUCERS * PER_PRODUCER) {
+							int n = batched ? queue.drain(batch, batch.length)
+									: (batch[0] = queue.poll()) != null ? 1 : 0;
+							if (n == 0) {
+								Thread.yield();
+							}
+							for (int k = 0; k < n; k++) {
+								sum.addAndGet(batch[k]);
+							}
+							count.addAndGet(n);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for (Thread t : threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Elements lost or duplicated. %n", testName),
+				(long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER + 1) / 2, sum.get());
+	}
+
+	@Test
+	public void testBatches() {
+		String testName = "testBatches";
+		MpmcArrayQueue<Integer> small = new MpmcArrayQueue<Integer>(4);
+		Integer[] in = { 0, 1, 2, 3, 4, 5 };
+		Integer[] out = new Integer[6];
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of elements added to a queue with room for 4. %n", testName), 4, small.offerAll(in, 0, 6));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Elements added to a full queue. %n", testName), 0, small.offerAll(in, 4, 2));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of elements drained. %n", testName), 3, small.drain(out, 3));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Rest not added after draining. %n", testName), 2, small.offerAll(in, 4, 2));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of elements drained. %n", testName), 3, small.drain(out, 6));
+		Assert.assertArrayEquals(String.format("%n" + "Test Case: %s%n" +
+				" Elements not in FIFO order. %n", testName), new Integer[] { 3, 4, 5 }, new Integer[] { out[0], out[1], out[2] });
+
+		checkProducersAndConsumers(testName, true);
+	}
+}
@@ -1,213 +1,862 @@
 package cs601.concurrent;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A reentrant read/write lock that allows: 
+ * A reentrant read/write lock that allows:
  * 1) Multiple readers (when there is no writer).
- * 2) One writer (when nobody else is writing or reading). 
- * 3) A writer is allowed to acquire a read lock while holding the write lock. 
+ * 2) One writer (when nobody else is writing or reading).
+ * 3) A writer is allowed to acquire a read lock while holding the write lock.
+ * 4) One upgradeable reader, that reads alongside the other readers and can
+ *    later acquire the write lock without releasing its lock first.
  * The assignment is based on the assignment of Prof. Rollins (original author).
+ *
+ * The reader and writer counts live in a single atomic state word, so an
+ * uncontended acquisition is one compare-and-set. Threads only queue up and
+ * park when the lock is held in a conflicting mode.
+ *
+ * Which waiting thread gets the lock next is decided by the {@link Policy}
+ * given to the constructor. A release only wakes the threads that are allowed
+ * to proceed: the next writer, or the next batch of readers.
+ *
+ * Short reads can also run without acquiring the lock at all, in the style of
+ * java.util.concurrent.locks.StampedLock:
+ *
+ * <pre>
+ * long stamp = lock.tryOptimisticRead();
+ * ... read shared fields into local variables ...
+ * if (!lock.validate(stamp)) {
+ *     ... read again while holding lockRead() ...
+ * }
+ * </pre>
+ *
+ * Check-then-act code takes the upgradeable read lock for the check, and the
+ * write lock only once it actually needs to modify:
+ *
+ * <pre>
+ * lock.lockUpgradeableRead();
+ * try {
+ *     if (... needs update ...) {
+ *         lock.lockWrite();	// waits for the plain readers to leave
+ *         try { ... } finally { lock.unlockWrite(); }
+ *     }
+ * } finally {
+ *     lock.unlockUpgradeableRead();
+ * }
+ * </pre>
+ *
+ * Contention can be measured with setStatisticsEnabled(true) and
+ * getStatistics(). While disabled this costs one volatile read per operation.
+ *
+ * Waiting threads never block in a monitor (synchronized or Object.wait()),
+ * only with LockSupport.park, so a virtual thread waiting for the lock does not
+ * pin its carrier thread. Before parking, the thread that is next in line spins
+ * for a while; the spin limit adapts to how often spinning paid off recently.
  */
 public class ReentrantReadWriteLock {
 
-	// TODO: Add instance variables : you need to keep track of the read lock holders and the write lock holders.
-	// We should be able to find the number of read locks and the number of write locks 
-	// a thread with the given threadId is holding 
-	
-	private Map<Long,Integer> readingThreads;
-	private Map<Long,Integer> writingThread;
-	
 	/**
-	 * Constructor for ReentrantReadWriteLock
+	 * Decides the order in which threads get the lock.
+	 */
+	public enum Policy {
+		/** New threads may take a free lock ahead of queued ones. Highest throughput. */
+		BARGING,
+		/** Threads get the lock in arrival order. Consecutive readers get it together. */
+		FAIR,
+		/** New readers wait as long as a writer is queued, so writers cannot starve. */
+		WRITER_PREFERRING
+	}
+
+	// Layout of the state word:
+	// bits  0-15 : number of write holds of the owner (reentrant count)
+	// bits 16-31 : total number of read holds of all threads
+	// bit  32    : set while a thread holds the upgradeable read lock
+	// bits 33-63 : version, incremented every time the write lock is released
+	private static final int READ_SHIFT = 16;
+	private static final long WRITE_MASK = (1L << READ_SHIFT) - 1;
+	private static final long READ_UNIT = 1L << READ_SHIFT;
+	private static final long READ_MASK = WRITE_MASK << READ_SHIFT;
+	private static final long UPGRADE_BIT = 1L << 32;
+	private static final int VERSION_SHIFT = 33;
+	private static final long VERSION_UNIT = 1L << VERSION_SHIFT;
+	private static final long VERSION_MASK = -VERSION_UNIT;
+	// Set in every valid optimistic stamp, so that 0 can mean "failed"
+	private static final long STAMP_BIT = 1L;
+
+	// Outcomes of a queued acquisition
+	private static final int ACQUIRED = 0;
+	private static final int TIMED_OUT = 1;
+	private static final int INTERRUPTED = 2;
+
+	// Bounds of the adaptive spin limit, no spinning on a single processor
+	private static final int MAX_SPINS =
+			Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+	private static final int MIN_SPINS = MAX_SPINS > 0 ? 1 << 4 : 0;
+
+	// Lock modes a thread can wait for
+	private static final int READ = 0;
+	private static final int WRITE = 1;
+	private static final int UPGRADE = 2;
+	private static final LockStatistics.Mode[] MODES = {
+			LockStatistics.Mode.READ, LockStatistics.Mode.WRITE, LockStatistics.Mode.UPGRADE };
+
+	private final AtomicLong state;
+	// The thread holding the write lock, null if nobody is writing
+	private volatile Thread owner;
+	// The thread holding the upgradeable read lock, null if none
+	private volatile Thread upgrader;
+	// Queue entry of the upgrader while it waits for the readers to leave
+	private volatile Waiter upgrading;
+	// Per thread read hold count, allocated once per thread
+	private final ThreadLocal<HoldCounter> holds;
+	// Threads that could not acquire the lock and are parked
+	private final ConcurrentLinkedQueue<Waiter> waiters;
+	// Number of writers and upgradeable readers in the wait queue
+	private final AtomicInteger queuedWriters;
+	// Number of threads in the wait queue
+	private final AtomicInteger queueLength;
+	private final Policy policy;
+	// Times the next in line retries before parking, see acquireQueued
+	private volatile int spinLimit;
+	// Null unless statistics are enabled
+	private volatile LockStatistics statistics;
+	// When and where the current owner acquired the write lock, only used with statistics
+	private long writeSince;
+	private String writeSite;
+
+	/**
+	 * Constructor for ReentrantReadWriteLock, uses the barging policy.
 	 */
 	public ReentrantReadWriteLock() {
-		// FILL IN CODE
-		readingThreads = new HashMap<Long,Integer>();
-		writingThread = new HashMap<Long,Integer>();
+		this(Policy.BARGING);
+	}
+
+	/**
+	 * Constructor for ReentrantReadWriteLock with a specific queueing policy.
+	 *
+	 * @param policy
+	 * 			- order in which waiting threads get the lock
+	 */
+	public ReentrantReadWriteLock(Policy policy) {
+		this.policy = policy;
+		state = new AtomicLong();
+		holds = new ThreadLocal<HoldCounter>() {
+			@Override
+			protected HoldCounter initialValue() {
+				return new HoldCounter();
+			}
+		};
+		waiters = new ConcurrentLinkedQueue<Waiter>();
+		queuedWriters = new AtomicInteger();
+		queueLength = new AtomicInteger();
+		spinLimit = MIN_SPINS;
+	}
+
+	/**
+	 * Turns collecting contention and hold time statistics on or off. Turning them
+	 * on again starts over from zero.
+	 *
+	 * @param enabled
+	 */
+	public void setStatisticsEnabled(boolean enabled) {
+		statistics = enabled ? new LockStatistics() : null;
+	}
+
+	/**
+	 * @return a snapshot of the statistics, or null if they are not enabled
+	 */
+	public LockStatistics.Snapshot getStatistics() {
+		LockStatistics stats = statistics;
+		return stats == null ? null : stats.snapshot();
+	}
+
+	/**
+	 * @return the queueing policy of this lock
+	 */
+	public Policy getPolicy() {
+		return policy;
 	}
 
 	/**
 	 * Returns true if the current thread holds a read lock.
-	 * 
+	 *
 	 * @return
 	 */
-	public synchronized boolean isReadLockHeldByCurrentThread() {
-		// FILL IN CODE
-		return readingThreads.containsKey(Thread.currentThread().getId()); // don't forget to change it
+	public boolean isReadLockHeldByCurrentThread() {
+		return holds.get().readHolds > 0;
 	}
 
 	/**
 	 * Returns true if the current thread holds a write lock.
-	 * 
+	 *
 	 * @return
 	 */
-	public synchronized boolean isWriteLockHeldByCurrentThread() {
-		// FILL IN CODE
-		return writingThread.containsKey(Thread.currentThread().getId()); // don't forget to change it
+	public boolean isWriteLockHeldByCurrentThread() {
+		return owner == Thread.currentThread();
+	}
+
+	/**
+	 * Returns true if the current thread holds the upgradeable read lock.
+	 *
+	 * @return
+	 */
+	public boolean isUpgradeableReadLockHeldByCurrentThread() {
+		return upgrader == Thread.currentThread();
 	}
 
 	/**
 	 * Non-blocking method that tries to acquire the read lock. Returns true
 	 * if successful.
-	 * 
+	 *
 	 * @return
 	 */
-	public synchronized boolean tryAcquiringReadLock() {
-		// FILL IN CODE
-		
-		//Store the currentThread Id
-		Long currentthread =Thread.currentThread().getId();
-		//Check that current thread is same as writing thread
-		if (writingThread.containsKey(currentthread)) {
-			//if same,increase the number of this thread in readingThread maps and return true
-			getSetReadingCount(currentthread);
-			return true;
-		} else if(writingThread.size() > 0) {
-			// if current thread not same as writing thread and  
-			// also if already writing from other thread return false
-			return false;
-		} else {
-			// In other conditions, fill the readingThreads HashMap and return true
-			getSetReadingCount(currentthread);
-			return true;
+	public boolean tryAcquiringReadLock() {
+		Thread current = Thread.currentThread();
+		for (;;) {
+			long s = state.get();
+			// Another thread is writing. The writer itself may also read.
+			if ((s & WRITE_MASK) != 0 && owner != current) {
+				return false;
+			}
+			if ((s & READ_MASK) == READ_MASK) {
+				throw new Error("Maximum read lock count exceeded");
+			}
+			if (state.compareAndSet(s, s + READ_UNIT)) {
+				HoldCounter counter = holds.get();
+				counter.readHolds++;
+				LockStatistics stats = statistics;
+				if (stats != null) {
+					stats.acquired(LockStatistics.Mode.READ);
+					if (counter.readHolds == 1) {
+						counter.readSince = System.nanoTime();
+					}
+				}
+				return true;
+			}
+			// Lost a race with another reader, try again
 		}
 	}
 
 	/**
 	 * Non-blocking method that tries to acquire the write lock. Returns true
 	 * if successful.
-	 * 
+	 *
 	 * @return
 	 */
-	public synchronized boolean tryAcquiringWriteLock() {
-		// FILL IN CODE
-		
-		//Store the currentThread Id
-		Long currentthread = Thread.currentThread().getId();
-		//Check that current thread is same as writing thread
-		if (writingThread.containsKey(currentthread)) {
-			//if same,increase the number of this thread in writingThread maps and return true
-			getSetWritingCount(currentthread);
+	public boolean tryAcquiringWriteLock() {
+		Thread current = Thread.currentThread();
+		long s = state.get();
+		if ((s & WRITE_MASK) != 0) {
+			// Only the owner may acquire the write lock again
+			if (owner != current) {
+				return false;
+			}
+			if ((s & WRITE_MASK) == WRITE_MASK) {
+				throw new Error("Maximum write lock count exceeded");
+			}
+			state.getAndIncrement();
+			LockStatistics stats = statistics;
+			if (stats != null) {
+				stats.acquired(LockStatistics.Mode.WRITE);
+			}
 			return true;
-		} else if (writingThread.size() > 0 || readingThreads.size() > 0) {
-			// if current thread not same as writing thread and  
-			// also if already reading from other thread return false
+		}
+		if ((s & READ_MASK) != 0) {
+			// Somebody (possibly this thread) is reading
 			return false;
-		} else {
-			// In other conditions, fill the writingThread HashMap and return true
-			getSetWritingCount(currentthread);
+		}
+		if ((s & UPGRADE_BIT) != 0 && upgrader != current) {
+			// Only the upgradeable reader may become the writer
+			return false;
+		}
+		if (state.compareAndSet(s, s + 1)) {
+			owner = current;
+			LockStatistics stats = statistics;
+			if (stats != null) {
+				stats.acquired(LockStatistics.Mode.WRITE);
+				writeSince = System.nanoTime();
+				writeSite = callerOf();
+			}
 			return true;
 		}
+		return false;
 	}
 
 	/**
 	 * Blocking method - calls tryAcquiringReadLock and returns only when the read lock has been
 	 * acquired, otherwise waits.
-	 * 
+	 */
+	public void lockRead() {
+		if (!mayBarge(READ) || !tryAcquiringReadLock()) {
+			acquireQueued(READ, false, false, 0L);
+		}
+	}
+
+	/**
+	 * Blocking method that acquires the read lock unless the current thread is
+	 * interrupted while waiting.
+	 *
 	 * @throws InterruptedException
 	 */
-	public synchronized void lockRead() {
-		// FILL IN CODE
-		while(!tryAcquiringReadLock()){
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	public void lockReadInterruptibly() throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (!mayBarge(READ) || !tryAcquiringReadLock()) {
+			if (acquireQueued(READ, true, false, 0L) == INTERRUPTED) {
+				throw new InterruptedException();
 			}
 		}
-		
 	}
 
 	/**
-	 * @param currentthread Get the threadId of thread and 
-	 * 			Checks that it is in the readingThreads HashMap
-	 * 					If exist, then increase the count of this thread
-	 * 					Else as a default, set it to 1
-	 * 					Then put the readingThreads HashMap 
-	 * @return null
+	 * Waits at most the given time for the read lock.
+	 *
+	 * @param timeout
+	 * 			- maximum time to wait
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return true if the read lock was acquired, false if the time ran out
+	 * @throws InterruptedException
 	 */
-	private Integer getSetReadingCount(Long currentthread) {
-		// TODO Auto-generated method stub
-		int count;
-		if(readingThreads.containsKey(currentthread)){
-			count = readingThreads.get(currentthread) + 1;
-			readingThreads.remove(currentthread);
-		} else {
-			count = 1;
+	public boolean tryLockRead(long timeout, TimeUnit unit) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
 		}
-		readingThreads.put(currentthread, count);
-		return null;
+		if (mayBarge(READ) && tryAcquiringReadLock()) {
+			return true;
+		}
+		int result = acquireQueued(READ, true, true, unit.toNanos(timeout));
+		if (result == INTERRUPTED) {
+			throw new InterruptedException();
+		}
+		return result == ACQUIRED;
 	}
 
 	/**
-	 * Releases the read lock held by the current thread. 
+	 * Releases the read lock held by the current thread.
 	 */
-	public synchronized void unlockRead() {
-		// FILL IN CODE
-		Long currentthread = Thread.currentThread().getId();
-		if(readingThreads.get(currentthread) == 1){
-			readingThreads.remove(currentthread);
-		} else {
-			readingThreads.put(currentthread, readingThreads.get(currentthread) - 1);
+	public void unlockRead() {
+		HoldCounter counter = holds.get();
+		if (counter.readHolds <= 0) {
+			throw new IllegalMonitorStateException("Read lock is not held by the current thread");
+		}
+		if (--counter.readHolds == 0) {
+			recordHold(LockStatistics.Mode.READ, counter.readSince);
+			counter.readSince = 0L;
+		}
+		long s = state.addAndGet(-READ_UNIT);
+		if ((s & READ_MASK) == 0) {
+			// Last reader left, a waiting writer may proceed
+			signalWaiters();
+		}
+	}
+
+	/**
+	 * Non-blocking method that tries to acquire the upgradeable read lock. Returns
+	 * true if successful. It can be held together with plain read locks, but not
+	 * with another upgradeable read lock or another thread's write lock.
+	 *
+	 * @return
+	 */
+	public boolean tryAcquiringUpgradeableReadLock() {
+		Thread current = Thread.currentThread();
+		HoldCounter counter = holds.get();
+		LockStatistics stats = statistics;
+		if (counter.upgradeHolds > 0) {
+			counter.upgradeHolds++;
+			if (stats != null) {
+				stats.acquired(LockStatistics.Mode.UPGRADE);
+			}
+			return true;
+		}
+		for (;;) {
+			long s = state.get();
+			if ((s & UPGRADE_BIT) != 0 || ((s & WRITE_MASK) != 0 && owner != current)) {
+				return false;
+			}
+			if (state.compareAndSet(s, s | UPGRADE_BIT)) {
+				upgrader = current;
+				counter.upgradeHolds = 1;
+				if (stats != null) {
+					stats.acquired(LockStatistics.Mode.UPGRADE);
+					counter.upgradeSince = System.nanoTime();
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Blocking method that returns only when the upgradeable read lock has been
+	 * acquired, otherwise waits. While holding it, lockWrite() upgrades to the
+	 * write lock as soon as the plain readers have left; no other writer can get
+	 * in between. Do not hold a plain read lock when upgrading, it would wait for
+	 * itself.
+	 */
+	public void lockUpgradeableRead() {
+		if (!mayBarge(UPGRADE) || !tryAcquiringUpgradeableReadLock()) {
+			acquireQueued(UPGRADE, false, false, 0L);
+		}
+	}
+
+	/**
+	 * Releases the upgradeable read lock held by the current thread.
+	 */
+	public void unlockUpgradeableRead() {
+		HoldCounter counter = holds.get();
+		if (counter.upgradeHolds <= 0) {
+			throw new IllegalMonitorStateException("Upgradeable read lock is not held by the current thread");
+		}
+		if (--counter.upgradeHolds == 0) {
+			recordHold(LockStatistics.Mode.UPGRADE, counter.upgradeSince);
+			counter.upgradeSince = 0L;
+			upgrader = null;
+			state.addAndGet(-UPGRADE_BIT);
+			signalWaiters();
 		}
-		notifyAll();
 	}
 
 	/**
 	 * Blocking method that calls tryAcquiringWriteLock and returns only when the write lock has been
 	 * acquired, otherwise waits.
-	 * 
+	 */
+	public void lockWrite() {
+		checkNotReading();
+		if (!mayBarge(WRITE) || !tryAcquiringWriteLock()) {
+			acquireQueued(WRITE, false, false, 0L);
+		}
+	}
+
+	/**
+	 * Blocking method that acquires the write lock unless the current thread is
+	 * interrupted while waiting.
+	 *
 	 * @throws InterruptedException
 	 */
-	public synchronized void lockWrite() {
-		// FILL IN CODE
-		while(!tryAcquiringWriteLock()) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}			
+	public void lockWriteInterruptibly() throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		checkNotReading();
+		if (!mayBarge(WRITE) || !tryAcquiringWriteLock()) {
+			if (acquireQueued(WRITE, true, false, 0L) == INTERRUPTED) {
+				throw new InterruptedException();
+			}
 		}
-		
 	}
 
 	/**
-	 * @param currentthread Get the threadId of thread and 
-	 * 			Checks that it is in the writingThread HashMap
-	 * 					If exist, then increase the count of this thread
-	 * 					Else as a default, set it to 1
-	 * 					Then put the writingThread HashMap 
-	 * @return
+	 * Waits at most the given time for the write lock.
+	 *
+	 * @param timeout
+	 * 			- maximum time to wait
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return true if the write lock was acquired, false if the time ran out
+	 * @throws InterruptedException
+	 */
+	public boolean tryLockWrite(long timeout, TimeUnit unit) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		checkNotReading();
+		if (mayBarge(WRITE) && tryAcquiringWriteLock()) {
+			return true;
+		}
+		int result = acquireQueued(WRITE, true, true, unit.toNanos(timeout));
+		if (result == INTERRUPTED) {
+			throw new InterruptedException();
+		}
+		return result == ACQUIRED;
+	}
+
+	/**
+	 * Releases the write lock held by the current thread.
 	 */
-	private Integer getSetWritingCount(Long currentthread) {
-		// TODO Auto-generated method stub
-		int count;
-		if(writingThread.containsKey(currentthread)){
-			count = writingThread.get(currentthread) + 1;
-			writingThread.remove(currentthread);
+	public void unlockWrite() {
+		if (owner != Thread.currentThread()) {
+			throw new IllegalMonitorStateException("Write lock is not held by the current thread");
+		}
+		if ((state.get() & WRITE_MASK) == 1) {
+			long since = writeSince;
+			String site = writeSite;
+			writeSince = 0L;
+			writeSite = null;
+			// Clear the owner before the lock becomes visible as free, and
+			// invalidate the optimistic stamps handed out before this write
+			owner = null;
+			state.addAndGet(VERSION_UNIT - 1);
+			signalWaiters();
+			recordWriteHold(since, site);
 		} else {
-			count = 1;
+			state.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Atomically turns the write lock held by the current thread into a read lock.
+	 * Other writers cannot get in between, so data published under the write lock
+	 * can be read on without a release/reacquire gap. Release the read lock with
+	 * unlockRead() afterwards.
+	 */
+	public void downgradeWriteToRead() {
+		if (owner != Thread.currentThread()) {
+			throw new IllegalMonitorStateException("Write lock is not held by the current thread");
+		}
+		if ((state.get() & WRITE_MASK) != 1) {
+			throw new IllegalMonitorStateException("Cannot downgrade a reentrantly held write lock");
+		}
+		long since = writeSince;
+		String site = writeSite;
+		writeSince = 0L;
+		writeSite = null;
+		HoldCounter counter = holds.get();
+		if (counter.readHolds++ == 0 && statistics != null) {
+			counter.readSince = System.nanoTime();
+		}
+		owner = null;
+		state.addAndGet(VERSION_UNIT - 1 + READ_UNIT);
+		signalWaiters();
+		recordWriteHold(since, site);
+	}
+
+	/**
+	 * Returns a stamp for an optimistic read, or 0 if the write lock is held.
+	 * Acquires nothing and writes no shared memory. Values read after this call
+	 * may only be used if validate(stamp) returns true afterwards.
+	 *
+	 * @return
+	 */
+	public long tryOptimisticRead() {
+		long s = state.get();
+		return (s & WRITE_MASK) == 0 ? (s & VERSION_MASK) | STAMP_BIT : 0L;
+	}
+
+	/**
+	 * Checks that no write lock has been acquired since the stamp was issued by
+	 * tryOptimisticRead().
+	 *
+	 * @param stamp
+	 * @return true if the values read under the stamp are consistent
+	 */
+	public boolean validate(long stamp) {
+		if (stamp == 0L) {
+			return false;
+		}
+		// A volatile write to thread-private memory keeps the preceding plain reads
+		// from being reordered after the state read below (java 8 has no load fence)
+		holds.get().fence = 0;
+		long s = state.get();
+		return (s & WRITE_MASK) == 0 && (s & VERSION_MASK) == (stamp & VERSION_MASK);
+	}
+
+	/**
+	 * Records the end of an outermost read or upgradeable hold.
+	 *
+	 * @param mode
+	 * @param since
+	 * 			- nanoTime of the acquisition, 0 if statistics were off back then
+	 */
+	private void recordHold(LockStatistics.Mode mode, long since) {
+		LockStatistics stats = statistics;
+		if (stats != null && since != 0L) {
+			stats.held(mode, System.nanoTime() - since);
+		}
+	}
+
+	/**
+	 * Records the end of an outermost write hold.
+	 *
+	 * @param since
+	 * 			- nanoTime of the acquisition, 0 if statistics were off back then
+	 * @param site
+	 * 			- method that acquired the write lock
+	 */
+	private void recordWriteHold(long since, String site) {
+		LockStatistics stats = statistics;
+		if (stats != null && since != 0L) {
+			stats.heldForWrite(site, System.nanoTime() - since);
+		}
+	}
+
+	/**
+	 * Only called with statistics enabled, walking the stack is expensive.
+	 *
+	 * @return the method outside of this class that is acquiring the lock
+	 */
+	private static String callerOf() {
+		for (StackTraceElement e : new Throwable().getStackTrace()) {
+			if (!e.getClassName().equals(ReentrantReadWriteLock.class.getName())) {
+				return e.getClassName() + "." + e.getMethodName();
+			}
 		}
-		writingThread.put(currentthread, count);
 		return null;
 	}
 
 	/**
-	 * Releases the write lock held by the current thread. 
+	 * A thread waiting for the write lock while holding a read lock would wait for
+	 * itself forever, so this fails fast instead.
 	 */
-	public synchronized void unlockWrite() {
-		// FILL IN CODE
-		Long currentthread = Thread.currentThread().getId();
-		if(writingThread.get(currentthread) == 1){
-			writingThread.remove(currentthread);
-		} else {
-			writingThread.put(currentthread, writingThread.get(currentthread) - 1);
+	private void checkNotReading() {
+		if (owner != Thread.currentThread() && holds.get().readHolds > 0) {
+			throw new IllegalMonitorStateException(
+					"Cannot acquire the write lock while holding a read lock, use lockUpgradeableRead()");
+		}
+	}
+
+	/**
+	 * Checks whether the current thread may try to take the lock without queueing.
+	 * Reentrant acquisitions and upgrades always may, otherwise it depends on the policy.
+	 *
+	 * @param mode
+	 * 			- READ, WRITE or UPGRADE
+	 * @return
+	 */
+	private boolean mayBarge(int mode) {
+		Thread current = Thread.currentThread();
+		if (owner == current || upgrader == current) {
+			return true;
+		}
+		if (mode == READ && holds.get().readHolds > 0) {
+			return true;
+		}
+		switch (policy) {
+		case FAIR:
+			return waiters.isEmpty();
+		case WRITER_PREFERRING:
+			return queuedWriters.get() == 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Slow path: enqueue the current thread and park it until the policy lets it
+	 * try and it is able to acquire the lock. If the wait is not interruptible,
+	 * interrupts do not abort it, but the interrupt status is restored before
+	 * returning. A thread that gives up leaves the queue and passes its wakeup on.
+	 *
+	 * While the thread is next in line it first spins up to spinLimit times. The
+	 * limit doubles when a spin ends with the lock acquired and halves when the
+	 * thread had to park anyway, so short critical sections are waited out
+	 * without a park/unpark round trip and long ones do not waste processor time.
+	 *
+	 * @param mode
+	 * 			- READ, WRITE or UPGRADE
+	 * @param interruptible
+	 * 			- true to give up when the thread is interrupted
+	 * @param timed
+	 * 			- true to give up after nanosTimeout
+	 * @param nanosTimeout
+	 * 			- maximum time to wait, if timed
+	 * @return ACQUIRED, TIMED_OUT or INTERRUPTED
+	 */
+	private int acquireQueued(int mode, boolean interruptible, boolean timed, long nanosTimeout) {
+		long deadline = timed ? System.nanoTime() + nanosTimeout : 0L;
+		Thread current = Thread.currentThread();
+		Waiter node = new Waiter(current, mode);
+		if (mode != READ) {
+			queuedWriters.incrementAndGet();
+		}
+		if (mode == WRITE && upgrader == current) {
+			upgrading = node;
+		}
+		waiters.add(node);
+		int length = queueLength.incrementAndGet();
+		LockStatistics stats = statistics;
+		long start = 0L;
+		if (stats != null) {
+			stats.queueLength(length);
+			start = System.nanoTime();
+		}
+		boolean interrupted = false;
+		int spins = spinLimit;
+		boolean spun = false;
+		int result;
+		for (;;) {
+			if (isEligible(node)) {
+				if (tryAcquire(mode)) {
+					if (spun) {
+						spinLimit = Math.min(MAX_SPINS, spinLimit << 1);
+					}
+					dequeue(node);
+					if (mode != WRITE) {
+						// Shared modes: readers queued behind us may get in as well
+						signalWaiters();
+					}
+					result = ACQUIRED;
+					if (stats != null) {
+						stats.waited(MODES[mode], current, System.nanoTime() - start);
+					}
+					break;
+				}
+				if (spins > 0) {
+					spins--;
+					spun = true;
+					continue;
+				}
+				if (spun) {
+					spinLimit = Math.max(MIN_SPINS, spinLimit >> 1);
+					spun = false;
+				}
+			}
+			if (timed) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0L) {
+					result = TIMED_OUT;
+					break;
+				}
+				LockSupport.parkNanos(this, remaining);
+			} else {
+				LockSupport.park(this);
+			}
+			if (Thread.interrupted()) {
+				if (interruptible) {
+					result = INTERRUPTED;
+					break;
+				}
+				interrupted = true;
+			}
+		}
+		if (result != ACQUIRED) {
+			// We may have been woken up as the next in line, or have been blocking
+			// readers behind us, so let the others re-check
+			dequeue(node);
+			signalWaiters();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	/**
+	 * Non-blocking acquisition in the given mode.
+	 *
+	 * @param mode
+	 * @return
+	 */
+	private boolean tryAcquire(int mode) {
+		switch (mode) {
+		case WRITE:
+			return tryAcquiringWriteLock();
+		case UPGRADE:
+			return tryAcquiringUpgradeableReadLock();
+		default:
+			return tryAcquiringReadLock();
+		}
+	}
+
+	/**
+	 * Removes a waiter from the queue.
+	 *
+	 * @param node
+	 */
+	private void dequeue(Waiter node) {
+		if (upgrading == node) {
+			upgrading = null;
+		}
+		waiters.remove(node);
+		queueLength.decrementAndGet();
+		if (node.mode != READ) {
+			queuedWriters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks whether a queued thread is next in line according to the policy.
+	 * Upgradeable readers queue like writers. A writer has to be the first writer
+	 * (writer preferring) or the head of the queue (other policies). A reader must
+	 * not have a writer ahead of it, or with writer preference, no writer in the
+	 * queue at all. An upgrading thread is always next in line, nobody else can
+	 * get the write lock before it.
+	 *
+	 * @param node
+	 * @return
+	 */
+	private boolean isEligible(Waiter node) {
+		if (node == upgrading) {
+			return true;
+		}
+		if (policy == Policy.WRITER_PREFERRING) {
+			if (node.mode == READ) {
+				return queuedWriters.get() == 0;
+			}
+			for (Waiter w : waiters) {
+				if (w.mode != READ) {
+					return w == node;
+				}
+			}
+			return true;
+		}
+		for (Waiter w : waiters) {
+			if (w == node) {
+				return true;
+			}
+			if (w.mode != READ || node.mode != READ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wakes up only the waiters that are next in line: the first eligible writer,
+	 * or the batch of readers at the front of the queue.
+	 */
+	private void signalWaiters() {
+		Waiter up = upgrading;
+		if (up != null) {
+			LockSupport.unpark(up.thread);
+		}
+		if (policy == Policy.WRITER_PREFERRING && queuedWriters.get() > 0) {
+			for (Waiter w : waiters) {
+				if (w.mode != READ) {
+					LockSupport.unpark(w.thread);
+					return;
+				}
+			}
+		}
+		boolean first = true;
+		for (Waiter w : waiters) {
+			if (w.mode != READ) {
+				if (first) {
+					LockSupport.unpark(w.thread);
+				}
+				return;
+			}
+			LockSupport.unpark(w.thread);
+			first = false;
+		}
+	}
+
+	/**
+	 * Number of read holds of a single thread. Only accessed by its own thread.
+	 */
+	private static final class HoldCounter {
+		int readHolds;
+		int upgradeHolds;
+		// nanoTime of the outermost acquisitions, only set with statistics enabled
+		long readSince;
+		long upgradeSince;
+		volatile int fence;
+	}
+
+	/**
+	 * A parked thread waiting for the lock.
+	 */
+	private static final class Waiter {
+		final Thread thread;
+		final int mode;
+
+		Waiter(Thread thread, int mode) {
+			this.thread = thread;
+			this.mode = mode;
 		}
-		notifyAll();
 	}
 }
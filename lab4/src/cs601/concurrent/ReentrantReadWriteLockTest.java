@@ -1,5 +1,11 @@
 package cs601.concurrent;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -107,6 +113,245 @@ public class ReentrantReadWriteLockTest {
 
 	}
 
-	
-	
+
+	@Test
+	public void testReadBlocksUntilWriteReleased() {
+		String testName = "testReadBlocksUntilWriteReleased";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		lock.lockWrite();
+		final boolean[] acquired = new boolean[1];
+		Thread t1 = new Thread() {
+			public void run() {
+				lock.lockRead();
+				acquired[0] = true;
+				lock.unlockRead();
+			}
+		};
+		t1.start();
+		try {
+			t1.join(200);
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" Reader did not wait for the writer. %n", testName), t1.isAlive());
+			lock.unlockWrite();
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Read lock not acquired after write release. %n", testName), acquired[0]);
+	}
+
+	@Test
+	public void testWritersExcludeEachOther() {
+		String testName = "testWritersExcludeEachOther";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		final int[] counter = new int[1];
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						lock.lockWrite();
+						try {
+							counter[0]++;
+						} finally {
+							lock.unlockWrite();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for (Thread t : threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		lock.lockRead();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Lost updates under the write lock. %n", testName), 80000, counter[0]);
+		lock.unlockRead();
+	}
+
+	@Test
+	public void testWriterPreferringBlocksNewReaders() {
+		String testName = "testWriterPreferringBlocksNewReaders";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock(ReentrantReadWriteLock.Policy.WRITER_PREFERRING);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		lock.lockRead();
+		Thread writer = new Thread() {
+			public void run() {
+				lock.lockWrite();
+				order.add("writer");
+				lock.unlockWrite();
+			}
+		};
+		Thread reader = new Thread() {
+			public void run() {
+				lock.lockRead();
+				order.add("reader");
+				lock.unlockRead();
+			}
+		};
+		try {
+			writer.start();
+			writer.join(200);
+			reader.start();
+			reader.join(200);
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" New reader was not queued behind the waiting writer. %n", testName), reader.isAlive());
+			lock.unlockRead();
+			writer.join();
+			reader.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Writer did not go first. %n", testName), Arrays.asList("writer", "reader"), order);
+	}
+
+	@Test
+	public void testTimedAndInterruptibleLock() {
+		String testName = "testTimedAndInterruptibleLock";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		lock.lockWrite();
+		final boolean[] results = new boolean[2];
+		Thread t1 = new Thread() {
+			public void run() {
+				try {
+					results[0] = lock.tryLockRead(50, TimeUnit.MILLISECONDS);
+					lock.lockWriteInterruptibly();
+				} catch (InterruptedException e) {
+					results[1] = true;
+				}
+			}
+		};
+		t1.start();
+		try {
+			t1.join(300);
+			t1.interrupt();
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Timed read lock acquired while write lock held. %n", testName), results[0]);
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Interruptible write lock was not interrupted. %n", testName), results[1]);
+		lock.unlockWrite();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Lock not free after waiters gave up. %n", testName), lock.tryAcquiringWriteLock());
+		lock.unlockWrite();
+	}
+
+	@Test
+	public void testOptimisticReadAndDowngrade() {
+		String testName = "testOptimisticReadAndDowngrade";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		long stamp = lock.tryOptimisticRead();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Stamp not valid without writes. %n", testName), lock.validate(stamp));
+		lock.lockWrite();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Optimistic read allowed while writing. %n", testName), 0L, lock.tryOptimisticRead());
+		lock.downgradeWriteToRead();
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Stamp still valid after a write. %n", testName), lock.validate(stamp));
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Read lock not held after downgrade. %n", testName), lock.isReadLockHeldByCurrentThread());
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Write lock still held after downgrade. %n", testName), lock.isWriteLockHeldByCurrentThread());
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Stamp not valid while only reading. %n", testName), lock.validate(lock.tryOptimisticRead()));
+		lock.unlockRead();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Lock not free after downgrade and release. %n", testName), lock.tryAcquiringWriteLock());
+		lock.unlockWrite();
+	}
+
+	@Test
+	public void testUpgradeableRead() {
+		String testName = "testUpgradeableRead";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		lock.lockUpgradeableRead();
+		final boolean[] results = new boolean[2];
+		Thread t1 = new Thread() {
+			public void run() {
+				results[0] = lock.tryAcquiringReadLock();
+				results[1] = lock.tryAcquiringUpgradeableReadLock();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				lock.unlockRead();
+			}
+		};
+		t1.start();
+		try {
+			Thread.sleep(50);
+			// Waits for t1 to release its read lock
+			lock.lockWrite();
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Reader blocked by upgradeable reader. %n", testName), results[0]);
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Second upgradeable reader allowed. %n", testName), results[1]);
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Write lock not held after upgrade. %n", testName), lock.isWriteLockHeldByCurrentThread());
+		lock.unlockWrite();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Upgradeable lock lost after write release. %n", testName), lock.isUpgradeableReadLockHeldByCurrentThread());
+		lock.unlockUpgradeableRead();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Lock not free after release. %n", testName), lock.tryAcquiringWriteLock());
+		lock.unlockWrite();
+	}
+
+	@Test
+	public void testStatistics() {
+		String testName = "testStatistics";
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		Assert.assertNull(String.format("%n" + "Test Case: %s%n" +
+				" Statistics collected while disabled. %n", testName), lock.getStatistics());
+		lock.setStatisticsEnabled(true);
+		lock.lockWrite();
+		Thread t1 = new Thread("waitingReader") {
+			public void run() {
+				lock.lockRead();
+				lock.unlockRead();
+			}
+		};
+		t1.start();
+		try {
+			Thread.sleep(100);
+			lock.unlockWrite();
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		LockStatistics.Snapshot stats = lock.getStatistics();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of write acquisitions. %n", testName), 1, stats.getAcquisitions(LockStatistics.Mode.WRITE));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of contended reads. %n", testName), 1, stats.getContendedAcquisitions(LockStatistics.Mode.READ));
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong maximum queue length. %n", testName), 1, stats.getMaxQueueLength());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Waiting thread not reported. %n", testName), "waitingReader", stats.getTopWaitingThreads(1).get(0).getName());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Write lock holder not reported. %n", testName),
+				ReentrantReadWriteLockTest.class.getName() + ".testStatistics", stats.getTopWriteHolders(1).get(0).getName());
+	}
 }
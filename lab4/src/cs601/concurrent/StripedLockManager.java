@@ -0,0 +1,83 @@
+package cs601.concurrent;
+
+/**
+ * A fixed set of ReentrantReadWriteLocks, one of which is picked by the hash
+ * of a key (e.g. a hotel id). Data of different keys is usually guarded by
+ * different locks, so threads working on different keys do not block each
+ * other, while the number of locks stays bounded no matter how many keys there
+ * are. Two keys may share a lock, which is safe but costs some concurrency.
+ *
+ * Code that needs the locks of several keys at once has to acquire them in a
+ * consistent order to avoid deadlocks, e.g. ordered by getStripe(key).
+ */
+public class StripedLockManager {
+
+	private final ReentrantReadWriteLock[] locks;
+	private final int mask;
+
+	/**
+	 * Constructor for StripedLockManager with four locks per processor.
+	 *
+	 * @param policy
+	 * 			- queueing policy of the locks
+	 */
+	public StripedLockManager(ReentrantReadWriteLock.Policy policy) {
+		this(Runtime.getRuntime().availableProcessors() * 4, policy);
+	}
+
+	/**
+	 * Constructor for StripedLockManager with a specific number of locks.
+	 *
+	 * @param stripes
+	 * 			- number of locks, rounded up to a power of two
+	 * @param policy
+	 * 			- queueing policy of the locks
+	 */
+	public StripedLockManager(int stripes, ReentrantReadWriteLock.Policy policy) {
+		int n = 1;
+		while (n < stripes) {
+			n <<= 1;
+		}
+		locks = new ReentrantReadWriteLock[n];
+		for (int i = 0; i < n; i++) {
+			locks[i] = new ReentrantReadWriteLock(policy);
+		}
+		mask = n - 1;
+	}
+
+	/**
+	 * @return number of locks
+	 */
+	public int getStripes() {
+		return locks.length;
+	}
+
+	/**
+	 * @param key
+	 * @return index of the lock guarding the key
+	 */
+	public int getStripe(Object key) {
+		int h = key.hashCode();
+		// Spread the high bits, like java.util.HashMap
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @param key
+	 * @return the lock guarding the key, always the same lock for equal keys
+	 */
+	public ReentrantReadWriteLock getLock(Object key) {
+		return locks[getStripe(key)];
+	}
+
+	/**
+	 * Turns collecting statistics on or off for all locks.
+	 *
+	 * @param enabled
+	 */
+	public void setStatisticsEnabled(boolean enabled) {
+		for (ReentrantReadWriteLock lock : locks) {
+			lock.setStatisticsEnabled(enabled);
+		}
+	}
+}
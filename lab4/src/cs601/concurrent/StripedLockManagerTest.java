@@ -0,0 +1,58 @@
+package cs601.concurrent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the StripedLockManager.
+ */
+public class StripedLockManagerTest {
+
+	@Test
+	public void testSameKeySameLock() {
+		String testName = "testSameKeySameLock";
+		StripedLockManager locks = new StripedLockManager(10, ReentrantReadWriteLock.Policy.BARGING);
+
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Stripes not rounded up to a power of two. %n", testName), 16, locks.getStripes());
+		Assert.assertSame(String.format("%n" + "Test Case: %s%n" +
+				" Equal keys got different locks. %n", testName), locks.getLock("12539"), locks.getLock(new String("12539")));
+	}
+
+	@Test
+	public void testDifferentStripesDoNotBlock() {
+		String testName = "testDifferentStripesDoNotBlock";
+		final StripedLockManager locks = new StripedLockManager(16, ReentrantReadWriteLock.Policy.BARGING);
+		// Find two keys in different stripes
+		String first = "0";
+		String second = null;
+		for (int i = 1; second == null; i++) {
+			if (locks.getStripe(String.valueOf(i)) != locks.getStripe(first)) {
+				second = String.valueOf(i);
+			}
+		}
+		final String other = second;
+		locks.getLock(first).lockWrite();
+		final boolean[] acquired = new boolean[2];
+		Thread t1 = new Thread() {
+			public void run() {
+				acquired[0] = locks.getLock(other).tryAcquiringWriteLock();
+				if (acquired[0]) {
+					locks.getLock(other).unlockWrite();
+				}
+				acquired[1] = locks.getLock("0").tryAcquiringReadLock();
+			}
+		};
+		t1.start();
+		try {
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		locks.getLock(first).unlockWrite();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Write to another stripe was blocked. %n", testName), acquired[0]);
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Read of a write locked stripe was allowed. %n", testName), acquired[1]);
+	}
+}
@@ -0,0 +1,292 @@
+package cs601.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reentrant read/write lock for read-mostly data, with the same rules as
+ * ReentrantReadWriteLock:
+ * 1) Multiple readers (when there is no writer).
+ * 2) One writer (when nobody else is writing or reading).
+ * 3) A writer is allowed to acquire a read lock while holding the write lock.
+ *
+ * Instead of one shared reader count, readers are counted in a number of
+ * striped slots, each on its own cache line. A reader only updates the slot of
+ * its thread, so readers on different cores do not bounce a cache line between
+ * them and read throughput scales with the number of cores. The price is paid
+ * by writers, which have to scan all slots until every reader has left.
+ * Reentrant read acquisitions only touch thread-local state.
+ */
+public class StripedReadWriteLock {
+
+	// Longs per slot, so every slot sits on its own 128 byte line
+	private static final int PAD = 16;
+	// Spins before a waiting thread parks
+	private static final int SPINS = 64;
+
+	private static final AtomicInteger nextSlot = new AtomicInteger();
+
+	private final int stripes;
+	private final AtomicLongArray slots;
+	// The thread holding (or acquiring) the write lock
+	private final AtomicReference<Thread> writer;
+	// Reentrant write count, only used by the writer
+	private int writeHolds;
+	private final ThreadLocal<HoldCounter> holds;
+	private final ConcurrentLinkedQueue<Thread> waiters;
+
+	/**
+	 * Constructor for StripedReadWriteLock with one slot per two processors'
+	 * worth of threads, rounded up to a power of two.
+	 */
+	public StripedReadWriteLock() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * Constructor for StripedReadWriteLock with a specific number of slots.
+	 *
+	 * @param stripes
+	 * 			- number of reader slots, rounded up to a power of two
+	 */
+	public StripedReadWriteLock(int stripes) {
+		int n = 1;
+		while (n < stripes) {
+			n <<= 1;
+		}
+		this.stripes = n;
+		slots = new AtomicLongArray(n * PAD);
+		writer = new AtomicReference<Thread>();
+		final int mask = n - 1;
+		holds = new ThreadLocal<HoldCounter>() {
+			@Override
+			protected HoldCounter initialValue() {
+				return new HoldCounter((nextSlot.getAndIncrement() & mask) * PAD);
+			}
+		};
+		waiters = new ConcurrentLinkedQueue<Thread>();
+	}
+
+	/**
+	 * @return number of reader slots
+	 */
+	public int getStripes() {
+		return stripes;
+	}
+
+	/**
+	 * Returns true if the current thread holds a read lock.
+	 *
+	 * @return
+	 */
+	public boolean isReadLockHeldByCurrentThread() {
+		return holds.get().readHolds > 0;
+	}
+
+	/**
+	 * Returns true if the current thread holds a write lock.
+	 *
+	 * @return
+	 */
+	public boolean isWriteLockHeldByCurrentThread() {
+		return writer.get() == Thread.currentThread();
+	}
+
+	/**
+	 * Non-blocking method that tries to acquire the read lock. Returns true
+	 * if successful.
+	 *
+	 * @return
+	 */
+	public boolean tryAcquiringReadLock() {
+		HoldCounter counter = holds.get();
+		if (counter.readHolds > 0) {
+			counter.readHolds++;
+			return true;
+		}
+		Thread current = Thread.currentThread();
+		Thread w = writer.get();
+		if (w != null && w != current) {
+			return false;
+		}
+		// Announce the reader first, then check for a writer. A writer does the
+		// opposite, so at least one of the two sees the other.
+		slots.getAndIncrement(counter.slot);
+		w = writer.get();
+		if (w != null && w != current) {
+			slots.getAndDecrement(counter.slot);
+			// The writer may be scanning the slots and waiting for us
+			LockSupport.unpark(w);
+			return false;
+		}
+		counter.readHolds = 1;
+		return true;
+	}
+
+	/**
+	 * Blocking method - calls tryAcquiringReadLock and returns only when the read lock has been
+	 * acquired, otherwise waits.
+	 */
+	public void lockRead() {
+		int spins = SPINS;
+		boolean interrupted = false;
+		while (!tryAcquiringReadLock()) {
+			if (spins > 0) {
+				spins--;
+			} else {
+				interrupted |= awaitWriterRelease();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Releases the read lock held by the current thread.
+	 */
+	public void unlockRead() {
+		HoldCounter counter = holds.get();
+		if (counter.readHolds <= 0) {
+			throw new IllegalMonitorStateException("Read lock is not held by the current thread");
+		}
+		if (--counter.readHolds == 0) {
+			slots.getAndDecrement(counter.slot);
+			Thread w = writer.get();
+			if (w != null) {
+				// A writer is waiting for the readers to leave
+				LockSupport.unpark(w);
+			}
+		}
+	}
+
+	/**
+	 * Non-blocking method that tries to acquire the write lock. Returns true
+	 * if successful.
+	 *
+	 * @return
+	 */
+	public boolean tryAcquiringWriteLock() {
+		Thread current = Thread.currentThread();
+		if (writer.get() == current) {
+			writeHolds++;
+			return true;
+		}
+		if (!writer.compareAndSet(null, current)) {
+			return false;
+		}
+		if (!noReaders()) {
+			writer.set(null);
+			signalWaiters();
+			return false;
+		}
+		writeHolds = 1;
+		return true;
+	}
+
+	/**
+	 * Blocking method that calls tryAcquiringWriteLock and returns only when the write lock has been
+	 * acquired, otherwise waits. First becomes the only writer, then waits for the
+	 * readers to leave; new readers are held back in the meantime.
+	 */
+	public void lockWrite() {
+		Thread current = Thread.currentThread();
+		if (writer.get() == current) {
+			writeHolds++;
+			return;
+		}
+		if (holds.get().readHolds > 0) {
+			throw new IllegalMonitorStateException("Cannot acquire the write lock while holding a read lock");
+		}
+		int spins = SPINS;
+		boolean interrupted = false;
+		while (!writer.compareAndSet(null, current)) {
+			if (spins > 0) {
+				spins--;
+			} else {
+				interrupted |= awaitWriterRelease();
+			}
+		}
+		spins = SPINS;
+		while (!noReaders()) {
+			if (spins > 0) {
+				spins--;
+			} else {
+				// Readers unpark the writer when they leave
+				LockSupport.park(this);
+				interrupted |= Thread.interrupted();
+			}
+		}
+		writeHolds = 1;
+		if (interrupted) {
+			current.interrupt();
+		}
+	}
+
+	/**
+	 * Releases the write lock held by the current thread.
+	 */
+	public void unlockWrite() {
+		if (writer.get() != Thread.currentThread()) {
+			throw new IllegalMonitorStateException("Write lock is not held by the current thread");
+		}
+		if (--writeHolds == 0) {
+			writer.set(null);
+			signalWaiters();
+		}
+	}
+
+	/**
+	 * Scans all reader slots.
+	 *
+	 * @return true if no thread holds a read lock
+	 */
+	private boolean noReaders() {
+		for (int i = 0; i < slots.length(); i += PAD) {
+			if (slots.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parks the current thread until the write lock is released.
+	 *
+	 * @return true if the thread was interrupted while waiting
+	 */
+	private boolean awaitWriterRelease() {
+		Thread current = Thread.currentThread();
+		waiters.add(current);
+		// Re-check after enqueueing, the writer may have left in the meantime
+		if (writer.get() != null) {
+			LockSupport.park(this);
+		}
+		waiters.remove(current);
+		return Thread.interrupted();
+	}
+
+	/**
+	 * Wakes up all threads waiting for the write lock to be released.
+	 */
+	private void signalWaiters() {
+		for (Thread t : waiters) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Read hold count and slot of a single thread. Only accessed by its own thread.
+	 */
+	private static final class HoldCounter {
+		final int slot;
+		int readHolds;
+
+		HoldCounter(int slot) {
+			this.slot = slot;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package cs601.concurrent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the StripedReadWriteLock.
+ */
+public class StripedReadWriteLockTest {
+
+	@Test
+	public void testLockSimple() {
+		String testName = "testLockSimple";
+		StripedReadWriteLock lock = new StripedReadWriteLock();
+		lock.lockWrite();
+		lock.lockRead();
+
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Read lock not held. %n", testName), lock.isReadLockHeldByCurrentThread());
+		lock.unlockRead();
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Read lock not released. %n", testName), lock.isReadLockHeldByCurrentThread());
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Write lock not held. %n", testName), lock.isWriteLockHeldByCurrentThread());
+		lock.unlockWrite();
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Write lock not released. %n", testName), lock.isWriteLockHeldByCurrentThread());
+	}
+
+	@Test
+	public void testReadersInDifferentSlotsBlockWriter() {
+		String testName = "testReadersInDifferentSlotsBlockWriter";
+
+		StripedReadWriteLock lock = new StripedReadWriteLock(4);
+		lock.lockRead();
+		Thread t1 = new Thread() {
+			public void run() {
+				Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+						" Read lock not acquired. %n", testName), lock.tryAcquiringReadLock());
+				Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+						" Write lock acquired while reading. %n", testName), lock.tryAcquiringWriteLock());
+				lock.unlockRead();
+			}
+		};
+		t1.start();
+		try {
+			t1.join();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Lock upgrade read to write should be disallowed. %n", testName), lock.tryAcquiringWriteLock());
+		lock.unlockRead();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Write lock not acquired after readers left. %n", testName), lock.tryAcquiringWriteLock());
+		lock.unlockWrite();
+	}
+
+	@Test
+	public void testReadersAndWritersExcludeEachOther() {
+		String testName = "testReadersAndWritersExcludeEachOther";
+
+		StripedReadWriteLock lock = new StripedReadWriteLock();
+		final int[] value = new int[2];
+		final boolean[] torn = new boolean[1];
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final boolean writes = i % 4 == 0;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 20000; j++) {
+						if (writes) {
+							lock.lockWrite();
+							value[0]++;
+							value[1]++;
+							lock.unlockWrite();
+						} else {
+							lock.lockRead();
+							if (value[0] != value[1]) {
+								torn[0] = true;
+							}
+							lock.unlockRead();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for (Thread t : threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+				" Reader saw a partial write. %n", testName), torn[0]);
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Lost updates under the write lock. %n", testName), 40000, value[0]);
+	}
+}
@@ -0,0 +1,212 @@
+package cs601.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * A batch of jobs run by a WorkQueue that can be waited for as a whole, like a
+ * CountDownLatch that counts up when jobs are added. Different batches (e.g.
+ * loading reviews and fetching attractions) use their own groups, so waiting
+ * for one does not wait for the other, and jobs do not share a counter or a
+ * monitor with other batches.
+ *
+ * Jobs that are dropped by the queue or not accepted after shutdown() count as
+ * done, so await() does not hang on them.
+ */
+public class TaskGroup {
+
+	private final WorkQueue workQueue;
+	// Jobs added and not yet done
+	private final AtomicInteger pending;
+	// Threads parked in await()
+	private final ConcurrentLinkedQueue<Thread> waiters;
+
+	/**
+	 * Constructor for TaskGroup.
+	 *
+	 * @param workQueue
+	 * 			- the queue that runs the jobs of this group
+	 */
+	public TaskGroup(WorkQueue workQueue) {
+		this.workQueue = workQueue;
+		pending = new AtomicInteger();
+		waiters = new ConcurrentLinkedQueue<Thread>();
+	}
+
+	/**
+	 * Adds a job to the group and queues it.
+	 *
+	 * @param r
+	 * @throws RejectedExecutionException
+	 * 			- if the queue is full and its policy is ABORT
+	 */
+	public void execute(Runnable r) {
+		execute(r, WorkQueue.Priority.NORMAL);
+	}
+
+	/**
+	 * Adds a job with the given priority to the group and queues it.
+	 *
+	 * @param r
+	 * @param priority
+	 * @throws RejectedExecutionException
+	 * 			- if the queue is full and its policy is ABORT
+	 */
+	public void execute(Runnable r, WorkQueue.Priority priority) {
+		GroupJob job = new GroupJob(r);
+		pending.incrementAndGet();
+		boolean accepted = false;
+		try {
+			accepted = workQueue.enqueue(job, priority);
+		} finally {
+			if (!accepted) {
+				done();
+			}
+		}
+	}
+
+	/**
+	 * Adds a job to the group and queues it behind the earlier jobs of the
+	 * key, see WorkQueue.execute(Object, Runnable).
+	 *
+	 * @param key
+	 * @param r
+	 * @throws RejectedExecutionException
+	 * 			- if the queue is full and its policy is ABORT
+	 */
+	public void execute(Object key, Runnable r) {
+		GroupJob job = new GroupJob(r);
+		pending.incrementAndGet();
+		boolean accepted = false;
+		try {
+			accepted = workQueue.enqueue(key, job);
+		} finally {
+			if (!accepted) {
+				done();
+			}
+		}
+	}
+
+	/**
+	 * Adds a job with a result to the group and queues it.
+	 *
+	 * @param task
+	 * @return future of the result, see WorkQueue.submit(Callable)
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		pending.incrementAndGet();
+		CompletableFuture<T> future = workQueue.submit(task);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable failure) {
+				done();
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return number of jobs added and not yet done
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Waits until all jobs added so far are done. A worker of the same queue
+	 * runs other jobs while it waits.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		await(false, 0L);
+	}
+
+	/**
+	 * Waits at most the given time until all jobs added so far are done.
+	 *
+	 * @param timeout
+	 * 			- maximum time to wait
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return true if all jobs are done, false if the time ran out
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return await(true, unit.toNanos(timeout));
+	}
+
+	private boolean await(boolean timed, long nanosTimeout) throws InterruptedException {
+		long deadline = timed ? System.nanoTime() + nanosTimeout : 0L;
+		Thread current = Thread.currentThread();
+		boolean worker = workQueue.isWorkerThread();
+		while (pending.get() > 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (workQueue.helpOnce()) {
+				continue;
+			}
+			long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+			if (remaining <= 0L) {
+				return false;
+			}
+			waiters.add(current);
+			// Re-check after enqueueing, the last job may have finished in the meantime
+			if (pending.get() > 0) {
+				if (worker) {
+					// Look for jobs to help with now and then
+					LockSupport.parkNanos(this, Math.min(remaining, WorkQueue.HELP_WAIT_NANOS));
+				} else if (timed) {
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			waiters.remove(current);
+		}
+		return true;
+	}
+
+	/**
+	 * Marks a job as done, the last one wakes up the waiting threads.
+	 */
+	private void done() {
+		if (pending.decrementAndGet() == 0) {
+			for (Thread t : waiters) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	/**
+	 * A job of this group, marks itself as done after running or being dropped.
+	 */
+	private final class GroupJob extends WorkQueue.TrackedJob {
+		private final Runnable r;
+
+		GroupJob(Runnable r) {
+			this.r = r;
+		}
+
+		@Override
+		public void run() {
+			try {
+				r.run();
+			} finally {
+				done();
+			}
+		}
+
+		@Override
+		void rejected(RejectedExecutionException e) {
+			done();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package cs601.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the TaskGroup.
+ */
+public class TaskGroupTest {
+
+	@Test
+	public void testGroupsAreAwaitedSeparately() {
+		String testName = "testGroupsAreAwaitedSeparately";
+		WorkQueue workQueue = new WorkQueue(4);
+		TaskGroup fast = new TaskGroup(workQueue);
+		TaskGroup slow = new TaskGroup(workQueue);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger done = new AtomicInteger();
+
+		slow.execute(new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		for (int i = 0; i < 1000; i++) {
+			fast.execute(new Runnable() {
+				public void run() {
+					done.incrementAndGet();
+				}
+			});
+		}
+		try {
+			fast.await();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" await returned before the jobs were done. %n", testName), 1000, done.get());
+			Assert.assertFalse(String.format("%n" + "Test Case: %s%n" +
+					" Slow group done while its job is blocked. %n", testName), slow.await(10, TimeUnit.MILLISECONDS));
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong pending count. %n", testName), 1, slow.getPending());
+			release.countDown();
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" Slow group not done after release. %n", testName), slow.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+	}
+
+	@Test
+	public void testAwaitInsideWorker() {
+		String testName = "testAwaitInsideWorker";
+		// One worker that waits for jobs it queued itself has to run them
+		final WorkQueue workQueue = new WorkQueue(1, true);
+		final AtomicInteger done = new AtomicInteger();
+		final TaskGroup outer = new TaskGroup(workQueue);
+		outer.execute(new Runnable() {
+			public void run() {
+				TaskGroup inner = new TaskGroup(workQueue);
+				for (int i = 0; i < 10; i++) {
+					inner.execute(new Runnable() {
+						public void run() {
+							done.incrementAndGet();
+						}
+					});
+				}
+				try {
+					inner.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		try {
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" Worker waiting for its own jobs deadlocked. %n", testName), outer.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Not all inner jobs ran. %n", testName), 10, done.get());
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+	}
+}
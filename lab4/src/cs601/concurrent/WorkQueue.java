@@ -1,17 +1,174 @@
 package cs601.concurrent;
 
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * A pool of worker threads that run the jobs given to execute().
+ *
+ * The pool is elastic: workers are started on demand, when a job arrives and
+ * no idle worker can take it, up to maxPoolSize. Workers beyond corePoolSize
+ * retire after being idle for the keep-alive time, so a pool that is quiet
+ * shrinks back to its core. By default core and max are the number of
+ * processors.
+ *
+ * Jobs are kept in a lock-free MpmcArrayQueue, so producers and workers do not
+ * serialize on a monitor. A worker that finds the queue empty spins briefly,
+ * then registers as idle and parks; execute() only unparks a worker when one
+ * is idle.
+ *
+ * The queue is bounded, so a fast producer cannot fill the heap with pending
+ * jobs. What execute() does when the queue is full is decided by the
+ * {@link SaturationPolicy}; getSaturationCount() tells how often it happened.
+ *
+ * In work-stealing mode every worker also owns a deque. Jobs submitted by a
+ * worker go to the front of its own deque and are run by it in LIFO order,
+ * which keeps recursive producers on the core that has their data in cache.
+ * A worker without local jobs takes from the shared queue, and then steals
+ * from the back of the other workers' deques, the oldest (and usually
+ * largest) jobs. Jobs submitted from other threads, and HIGH jobs, go to the
+ * shared queues.
+ * All worker deques together hold at most as many jobs as one shared queue.
+ *
+ * submit() returns a CompletableFuture of the job's result, and a TaskGroup
+ * tracks a batch of jobs so it can be awaited without a shared counter.
+ * Workers that wait for futures or groups of their own queue run other jobs
+ * meanwhile, so they cannot starve the pool.
+ *
+ * A queue made by newThreadPerTask() has no workers. It starts a new thread
+ * for every job, at most maxConcurrency at a time, and further jobs wait in the
+ * queue. The threads are virtual threads when the JVM supports them (Java 21
+ * and later), so jobs that mostly block on I/O can be run by the thousands;
+ * otherwise they are platform threads.
+ *
+ * Jobs have a {@link Priority}, each with a queue of its own. Workers mostly
+ * take the most urgent job, but lower priorities get a share of the turns too
+ * (4 HIGH, 2 NORMAL, 1 LOW out of 7 while all have jobs waiting), so a steady
+ * stream of urgent jobs delays bulk work but cannot starve it. Within a
+ * priority jobs run in FIFO order.
+ *
+ * Workers take jobs in batches: one compare-and-set takes up to DRAIN_BATCH
+ * jobs of a priority, but no more than a fair share of what is waiting, and
+ * only single jobs while other priorities have jobs waiting, so the turns
+ * above still hold job by job. A worker that
+ * leaves jobs behind wakes up the next one, so executeAll() can queue a
+ * batch with one compare-and-set and one wakeup. This matters for jobs that
+ * take microseconds, where handing over the jobs would otherwise dominate.
+ *
+ * execute(key, r) runs the jobs of a key (e.g. a hotel id) one at a time, in
+ * the order they were submitted, so state that belongs to the key can be
+ * updated without a lock, while jobs of different keys run in parallel. The
+ * keys are hashed onto a fixed number of lanes; a lane with waiting jobs is
+ * queued as a single job that runs a batch of them, then queues itself again.
+ * Keys that share a lane are serialized too, which is safe but costs some
+ * parallelism. Any worker may run a lane, the order and the happens-before
+ * between consecutive jobs of a key is what is guaranteed, not the thread.
+ *
+ * A queue can be given a name, which its threads carry and toString() reports
+ * together with the pool size and job counts, so separate pools (e.g. one for
+ * parsing and one for network requests) can be told apart when monitoring.
+ */
 public class WorkQueue {
-	
-	private final static int nThreadDefault = 10;
-    private final PoolWorker[] threads;
-    private final LinkedList<Runnable> queue;
+
+	/**
+	 * What execute() does with a job when the queue is full.
+	 */
+	public enum SaturationPolicy {
+		/** Wait until a worker makes room. A worker of this queue runs the job itself instead, it could wait for itself. */
+		BLOCK,
+		/** Run the job in the thread that called execute(), which also slows down the producer. */
+		CALLER_RUNS,
+		/** Throw a RejectedExecutionException. */
+		ABORT,
+		/** Drop the oldest waiting job and queue the new one. The dropped job never runs. */
+		DISCARD_OLDEST
+	}
+
+	/**
+	 * How urgent a job is. execute(Runnable) uses NORMAL.
+	 */
+	public enum Priority {
+		/** Latency-sensitive jobs, e.g. a user waiting for the result. */
+		HIGH,
+		NORMAL,
+		/** Bulk work that may wait behind everything else. */
+		LOW
+	}
+
+	// Which priority a worker tries first on each turn, 4:2:1
+	private final static Priority[] PRIORITY_TURNS = {
+		Priority.HIGH, Priority.NORMAL, Priority.HIGH, Priority.LOW,
+		Priority.HIGH, Priority.NORMAL, Priority.HIGH
+	};
+	private final static int nThreadDefault = Runtime.getRuntime().availableProcessors();
+	private final static int queueCapacityDefault = 1 << 16;
+	private final static long keepAliveSecondsDefault = 60L;
+	// Null if the JVM has no virtual threads
+	private final static ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+	// Polls of an empty queue before a worker parks
+	private final static int IDLE_SPINS = 128;
+	// Time a producer waits for room in a full queue before retrying
+	private final static long FULL_WAIT_NANOS = 10000L;
+	// Time a waiting worker sleeps before it looks for jobs to help with again
+	final static long HELP_WAIT_NANOS = 100000L;
+	// Lanes of execute(key, r) per worker, and jobs a lane runs before it lets other jobs go first
+	private final static int LANES_PER_WORKER = 4;
+	private final static int LANE_BATCH = 64;
+	// Jobs a worker takes from a shared queue at once
+	private final static int DRAIN_BATCH = 16;
+    // Live workers by slot, null slots are free
+    private final AtomicReferenceArray<PoolWorker> threads;
+    // Live workers, including ones that are starting
+    private final AtomicInteger poolSize;
+    private final int corePoolSize;
+    private final int maxPoolSize;
+    private final long keepAliveNanos;
+    // Shared queues by priority ordinal
+    private final MpmcArrayQueue<Runnable>[] queues;
+    // Parked workers, may contain stale entries of workers that woke up by themselves
+    private final ConcurrentLinkedQueue<PoolWorker> idleWorkers;
     private volatile boolean running;
+    private final boolean workStealing;
+    private final SaturationPolicy saturationPolicy;
+    // Jobs in all worker deques
+    private final AtomicInteger localJobs;
+    // How often each policy was applied, by ordinal
+    private final LongAdder[] saturationCounts;
+    // Only set in thread-per-task mode, where poolSize counts the running jobs
+    private final ThreadFactory taskThreadFactory;
+    // Threads waiting in awaitTermination() in thread-per-task mode
+    private final ConcurrentLinkedQueue<Thread> terminationWaiters;
+    // Turn counter of the job starter in thread-per-task mode, see PRIORITY_TURNS
+    private final AtomicInteger taskTurns;
+    // Serial lanes of execute(key, r), by the hash of the key
+    private final KeyLane[] lanes;
+    // Jobs waiting in the lanes
+    private final AtomicInteger keyedJobs;
+    // Prefix of the thread names
+    private volatile String name;
+    // Jobs being run, and jobs done so far
+    private final LongAdder activeJobs;
+    private final LongAdder completedJobs;
 
 	/**
-	 * Construct a WorkQueue with 10 default workers.
+	 * Construct a WorkQueue with one worker per processor.
 	 */
 	public WorkQueue() {
 		this(nThreadDefault);
@@ -23,27 +180,586 @@ public class WorkQueue {
 	 */
 	public WorkQueue(int nThreads)
 	{
-        queue = new LinkedList<Runnable>();
-        threads = new PoolWorker[nThreads];
-        running = true;
-        for (int i=0; i<nThreads; i++) {
-            threads[i] = new PoolWorker();
-            threads[i].start();
+		this(nThreads, false);
+	}
+
+	/**
+	 * Construct a WorkQueue with specific number of workers.
+	 * @param nThreads - number of workers
+	 * @param workStealing - true to give every worker its own deque, see above
+	 */
+	public WorkQueue(int nThreads, boolean workStealing)
+	{
+		this(nThreads, workStealing, queueCapacityDefault, SaturationPolicy.BLOCK);
+	}
+
+	/**
+	 * Construct an elastic WorkQueue.
+	 * @param corePoolSize - number of workers that are kept when idle
+	 * @param maxPoolSize - maximum number of workers
+	 * @param keepAlive - how long workers beyond the core wait for a job before they retire
+	 * @param unit - time unit of keepAlive
+	 */
+	public WorkQueue(int corePoolSize, int maxPoolSize, long keepAlive, TimeUnit unit)
+	{
+		this(corePoolSize, maxPoolSize, keepAlive, unit, false, queueCapacityDefault, SaturationPolicy.BLOCK);
+	}
+
+	/**
+	 * Construct a WorkQueue with default workers and a bounded queue.
+	 * @param capacity - maximum number of waiting jobs, rounded up to a power of two
+	 * @param saturationPolicy - what to do with jobs while the queue is full
+	 */
+	public WorkQueue(int capacity, SaturationPolicy saturationPolicy)
+	{
+		this(nThreadDefault, false, capacity, saturationPolicy);
+	}
+
+	/**
+	 * Construct a WorkQueue.
+	 * @param nThreads - number of workers
+	 * @param workStealing - true to give every worker its own deque, see above
+	 * @param capacity - maximum number of waiting jobs, rounded up to a power of two
+	 * @param saturationPolicy - what to do with jobs while the queue is full
+	 */
+	public WorkQueue(int nThreads, boolean workStealing, int capacity, SaturationPolicy saturationPolicy)
+	{
+		this(nThreads, nThreads, keepAliveSecondsDefault, TimeUnit.SECONDS, workStealing, capacity, saturationPolicy);
+	}
+
+	/**
+	 * Construct a WorkQueue. No worker is started until the first job arrives.
+	 * @param corePoolSize - number of workers that are kept when idle
+	 * @param maxPoolSize - maximum number of workers
+	 * @param keepAlive - how long workers beyond the core wait for a job before they retire
+	 * @param unit - time unit of keepAlive
+	 * @param workStealing - true to give every worker its own deque, see above
+	 * @param capacity - maximum number of waiting jobs, rounded up to a power of two
+	 * @param saturationPolicy - what to do with jobs while the queue is full
+	 */
+	public WorkQueue(int corePoolSize, int maxPoolSize, long keepAlive, TimeUnit unit,
+			boolean workStealing, int capacity, SaturationPolicy saturationPolicy)
+	{
+		this(corePoolSize, maxPoolSize, keepAlive, unit, workStealing, capacity, saturationPolicy, null);
+	}
+
+	private WorkQueue(int corePoolSize, int maxPoolSize, long keepAlive, TimeUnit unit,
+			boolean workStealing, int capacity, SaturationPolicy saturationPolicy, ThreadFactory taskThreadFactory)
+	{
+		if (maxPoolSize < 1 || corePoolSize < 0 || corePoolSize > maxPoolSize) {
+			throw new IllegalArgumentException("Invalid pool size, core " + corePoolSize + ", max " + maxPoolSize);
+		}
+        this.corePoolSize = corePoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.workStealing = workStealing;
+        this.saturationPolicy = saturationPolicy;
+        queues = newQueues(capacity);
+        localJobs = new AtomicInteger();
+        saturationCounts = new LongAdder[SaturationPolicy.values().length];
+        for (int i = 0; i < saturationCounts.length; i++) {
+        	saturationCounts[i] = new LongAdder();
+        }
+        idleWorkers = new ConcurrentLinkedQueue<PoolWorker>();
+        this.taskThreadFactory = taskThreadFactory;
+        terminationWaiters = new ConcurrentLinkedQueue<Thread>();
+        taskTurns = new AtomicInteger();
+        int nLanes = 1;
+        while (nLanes < maxPoolSize * LANES_PER_WORKER) {
+        	nLanes <<= 1;
         }
+        lanes = new KeyLane[nLanes];
+        for (int i = 0; i < nLanes; i++) {
+        	lanes[i] = new KeyLane();
+        }
+        keyedJobs = new AtomicInteger();
+        name = "WorkQueue";
+        activeJobs = new LongAdder();
+        completedJobs = new LongAdder();
+        threads = new AtomicReferenceArray<PoolWorker>(taskThreadFactory == null ? maxPoolSize : 0);
+        poolSize = new AtomicInteger();
+        running = true;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static MpmcArrayQueue<Runnable>[] newQueues(int capacity) {
+		MpmcArrayQueue<Runnable>[] queues = new MpmcArrayQueue[Priority.values().length];
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new MpmcArrayQueue<Runnable>(capacity);
+		}
+		return queues;
+	}
+
+	/**
+	 * Construct a WorkQueue that runs every job on a new (virtual, if
+	 * available) thread, see above.
+	 * @param maxConcurrency - maximum number of jobs running at the same time
+	 * @return
+	 */
+	public static WorkQueue newThreadPerTask(int maxConcurrency)
+	{
+		return newThreadPerTask(maxConcurrency, queueCapacityDefault, SaturationPolicy.BLOCK);
+	}
+
+	/**
+	 * Construct a WorkQueue that runs every job on a new (virtual, if
+	 * available) thread, see above.
+	 * @param maxConcurrency - maximum number of jobs running at the same time
+	 * @param capacity - maximum number of jobs waiting to run, rounded up to a power of two
+	 * @param saturationPolicy - what to do with jobs while the queue is full
+	 * @return
+	 */
+	public static WorkQueue newThreadPerTask(int maxConcurrency, int capacity, SaturationPolicy saturationPolicy)
+	{
+		ThreadFactory factory = VIRTUAL_THREADS;
+		if (factory == null) {
+			factory = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r);
+				}
+			};
+		}
+		return new WorkQueue(0, maxConcurrency, 0L, TimeUnit.SECONDS, false, capacity, saturationPolicy, factory);
+	}
+
+	/**
+	 * @return a factory of virtual threads, or null if the JVM has none
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			// Thread.ofVirtual().factory(), looked up at runtime since we build for Java 8
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if jobs run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return taskThreadFactory != null && taskThreadFactory == VIRTUAL_THREADS;
+	}
+
+	/**
+	 * Sets the name of this queue. Threads started from now on are named after it.
+	 * @param name
+	 * @return this queue
+	 */
+	public WorkQueue setName(String name) {
+		if (name == null) {
+			throw new NullPointerException();
+		}
+		this.name = name;
+		return this;
+	}
+
+	/**
+	 * @return the name of this queue
+	 */
+	public String getName() {
+		return name;
 	}
 
 	/**
 	 * Execute a new Runnable job.
 	 * @param r
+	 * @throws RejectedExecutionException - if the queue is full and the policy is ABORT
 	 */
 	public void execute(Runnable r) {
-		if (running) {
-			// If running flag is true, we are welcome new jobs.
-			synchronized(queue) {
-	            queue.addLast(r);
-	            queue.notify();
-	        }
+		enqueue(r, Priority.NORMAL);
+	}
+
+	/**
+	 * Execute a new Runnable job with the given priority.
+	 * @param r
+	 * @param priority
+	 * @throws RejectedExecutionException - if the queue of the priority is full and the policy is ABORT
+	 */
+	public void execute(Runnable r, Priority priority) {
+		enqueue(r, priority);
+	}
+
+	/**
+	 * Execute a batch of jobs. Jobs that fit into the queue are added with one
+	 * compare-and-set and one wakeup, the rest are handled like execute().
+	 * @param jobs
+	 * @throws RejectedExecutionException - if the queue is full and the policy is ABORT
+	 */
+	public void executeAll(Collection<? extends Runnable> jobs) {
+		executeAll(jobs, Priority.NORMAL);
+	}
+
+	/**
+	 * Execute a batch of jobs with the given priority, see executeAll(Collection).
+	 * @param jobs
+	 * @param priority
+	 * @throws RejectedExecutionException - if the queue of the priority is full and the policy is ABORT
+	 */
+	public void executeAll(Collection<? extends Runnable> jobs, Priority priority) {
+		if (!running || jobs.isEmpty()) {
+			return;
 		}
+		Runnable[] batch = jobs.toArray(new Runnable[jobs.size()]);
+		int added = 0;
+		if (!isLocal(priority, currentWorker())) {
+			added = queues[priority.ordinal()].offerAll(batch, 0, batch.length);
+			if (added > 0) {
+				// Workers that take jobs and leave some behind wake up the others
+				signalWork();
+			}
+		}
+		for (int i = added; i < batch.length; i++) {
+			enqueue(batch[i], priority);
+		}
+	}
+
+	/**
+	 * Execute a new Runnable job after all jobs submitted earlier with an
+	 * equal key, and never at the same time as any of them, see above.
+	 * The jobs of a key cannot be dropped or run by the caller without
+	 * breaking their order, so if the lanes hold as many jobs as the capacity,
+	 * the caller waits under every policy but ABORT; a worker of this queue
+	 * never waits.
+	 * @param key
+	 * @param r
+	 * @throws RejectedExecutionException - if the lanes are full and the policy is ABORT
+	 */
+	public void execute(Object key, Runnable r) {
+		enqueue(key, r);
+	}
+
+	/**
+	 * Adds a job to the lane of the key, and queues the lane unless it is
+	 * queued or running already.
+	 * @param key
+	 * @param r
+	 * @return false if the job was not accepted because of shutdown()
+	 * @throws RejectedExecutionException - if the lanes are full and the policy is ABORT
+	 */
+	boolean enqueue(Object key, Runnable r) {
+		if (!running) {
+			return false;
+		}
+		PoolWorker worker = currentWorker();
+		if (keyedJobs.incrementAndGet() > getCapacity() && worker == null) {
+			keyedJobs.decrementAndGet();
+			SaturationPolicy policy = saturationPolicy == SaturationPolicy.ABORT
+					? SaturationPolicy.ABORT : SaturationPolicy.BLOCK;
+			saturationCounts[policy.ordinal()].increment();
+			if (policy == SaturationPolicy.ABORT) {
+				throw new RejectedExecutionException("WorkQueue is full, capacity " + getCapacity());
+			}
+			while (true) {
+				int jobs = keyedJobs.get();
+				if (jobs < getCapacity()) {
+					if (keyedJobs.compareAndSet(jobs, jobs + 1)) {
+						break;
+					}
+				} else {
+					// The lanes are drained by the workers
+					LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+				}
+			}
+		}
+		int h = key.hashCode();
+		// Spread the high bits, like java.util.HashMap
+		KeyLane lane = lanes[(h ^ (h >>> 16)) & (lanes.length - 1)];
+		lane.jobs.add(r);
+		lane.schedule(worker);
+		return true;
+	}
+
+	/**
+	 * Queues a job, unless the queue has been shut down.
+	 * @param r
+	 * @param priority
+	 * @return false if the job was not accepted because of shutdown()
+	 * @throws RejectedExecutionException - if the queue is full and the policy is ABORT
+	 */
+	boolean enqueue(Runnable r, Priority priority) {
+		if (!running) {
+			return false;
+		}
+		// If running flag is true, we are welcome new jobs.
+		PoolWorker worker = currentWorker();
+		if (!offer(r, priority, worker)) {
+			saturated(r, priority, worker);
+			return true;
+		}
+		signalWork();
+		return true;
+	}
+
+	/**
+	 * Submits a job that returns a result.
+	 * @param task
+	 * @return a future completed with the result or the exception of the task.
+	 * 		If the queue is shut down or rejects the task, the future is completed
+	 * 		with a RejectedExecutionException; with DISCARD_OLDEST as well once the
+	 * 		task is dropped.
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		return submit(task, Priority.NORMAL);
+	}
+
+	/**
+	 * Submits a job that returns a result with the given priority.
+	 * @param task
+	 * @param priority
+	 * @return a future of the result, see submit(Callable)
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task, Priority priority) {
+		FutureJob<T> job = new FutureJob<T>(task);
+		try {
+			if (!enqueue(job, priority)) {
+				job.rejected(new RejectedExecutionException("WorkQueue is shut down"));
+			}
+		} catch (RejectedExecutionException e) {
+			job.rejected(e);
+		}
+		return job.future;
+	}
+
+	/**
+	 * Submits a job without a result.
+	 * @param task
+	 * @return a future completed with null when the job is done, see submit(Callable)
+	 */
+	public CompletableFuture<Void> submit(final Runnable task) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Submits all tasks and waits until every one of them has completed.
+	 * @param tasks
+	 * @return the futures of the tasks, in the same order, all done
+	 */
+	public <T> List<CompletableFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+		List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(submit(task));
+		}
+		for (CompletableFuture<T> future : futures) {
+			while (!future.isDone()) {
+				if (!helpOnce()) {
+					if (currentWorker() == null) {
+						try {
+							future.join();
+						} catch (CompletionException | CancellationException ignore) {
+							// Reported through the future
+						}
+					} else {
+						LockSupport.parkNanos(this, HELP_WAIT_NANOS);
+					}
+				}
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * If the current thread is a worker of this queue, runs one waiting job.
+	 * Used by threads that wait for jobs of this queue.
+	 * @return true if a job was run
+	 */
+	boolean helpOnce() {
+		PoolWorker worker = currentWorker();
+		if (worker == null) {
+			return false;
+		}
+		Runnable r = worker.nextJob();
+		if (r == null) {
+			return false;
+		}
+		runJob(r);
+		return true;
+	}
+
+	/**
+	 * @return true if the current thread is a worker of this queue
+	 */
+	boolean isWorkerThread() {
+		return currentWorker() != null;
+	}
+
+	/**
+	 * Runs a job, a RuntimeException thrown by it does not stop the worker.
+	 * @param r
+	 */
+	private void runJob(Runnable r) {
+		if (r instanceof KeyLane) {
+			// Counts the jobs it runs itself
+			r.run();
+			return;
+		}
+		activeJobs.increment();
+		try {
+			r.run();
+		}
+		catch (RuntimeException ignore) {
+		}
+		finally {
+			activeJobs.decrement();
+			completedJobs.increment();
+		}
+	}
+
+	/**
+	 * @param priority
+	 * @param worker - the current thread if it is one of our workers, otherwise null
+	 * @return true if the job goes to the deque of the submitting worker;
+	 * 		HIGH jobs always go to the shared queue, where any worker finds them
+	 */
+	private boolean isLocal(Priority priority, PoolWorker worker) {
+		return workStealing && worker != null && priority != Priority.HIGH;
+	}
+
+	/**
+	 * Adds a job to the deque of the submitting worker in work-stealing mode,
+	 * otherwise to the shared queue of its priority.
+	 * @param r
+	 * @param priority
+	 * @param worker - the current thread if it is one of our workers, otherwise null
+	 * @return false if there is no room
+	 */
+	private boolean offer(Runnable r, Priority priority, PoolWorker worker) {
+		if (isLocal(priority, worker)) {
+			if (localJobs.incrementAndGet() > getCapacity()) {
+				localJobs.decrementAndGet();
+				return false;
+			}
+			// Submitted by one of our workers, keep it local
+			worker.local.addFirst(r);
+			return true;
+		}
+		return queues[priority.ordinal()].offer(r);
+	}
+
+	/**
+	 * Takes a job from the shared queues. The turn decides which priority is
+	 * tried first, see PRIORITY_TURNS; if it has no job, the others are tried
+	 * from HIGH to LOW.
+	 * @param turn - counter that the caller increments on every poll
+	 * @return a job, or null if all shared queues are empty
+	 */
+	private Runnable pollShared(int turn) {
+		int first = PRIORITY_TURNS[(turn & Integer.MAX_VALUE) % PRIORITY_TURNS.length].ordinal();
+		Runnable r = queues[first].poll();
+		for (int i = 0; r == null && i < queues.length; i++) {
+			if (i != first) {
+				r = queues[i].poll();
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return true if no job is waiting in the shared queues
+	 */
+	private boolean isSharedEmpty() {
+		for (MpmcArrayQueue<Runnable> q : queues) {
+			if (!q.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the saturation policy to a job that did not fit.
+	 * @param r
+	 * @param priority
+	 * @param worker - the current thread if it is one of our workers, otherwise null
+	 */
+	private void saturated(Runnable r, Priority priority, PoolWorker worker) {
+		SaturationPolicy policy = saturationPolicy;
+		if (policy == SaturationPolicy.BLOCK && worker != null) {
+			// All workers could end up waiting for each other
+			policy = SaturationPolicy.CALLER_RUNS;
+		}
+		saturationCounts[policy.ordinal()].increment();
+		switch (policy) {
+		case CALLER_RUNS:
+			// Counted like a job run by a worker, but an exception reaches the caller
+			activeJobs.increment();
+			try {
+				r.run();
+			}
+			finally {
+				activeJobs.decrement();
+				completedJobs.increment();
+			}
+			return;
+		case ABORT:
+			throw new RejectedExecutionException("WorkQueue is full, capacity " + getCapacity());
+		case DISCARD_OLDEST:
+			do {
+				discardOldest(priority, worker);
+			} while (!offer(r, priority, worker));
+			break;
+		default:
+			while (!offer(r, priority, worker)) {
+				// Full, the workers are busy and will make room
+				LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+			}
+		}
+		signalWork();
+	}
+
+	/**
+	 * Drops the oldest job of the submitting worker's deque in work-stealing
+	 * mode, otherwise of the shared queue of the priority.
+	 * @param priority - priority of the job that did not fit
+	 * @param worker - the current thread if it is one of our workers, otherwise null
+	 */
+	private void discardOldest(Priority priority, PoolWorker worker) {
+		Runnable dropped = null;
+		if (isLocal(priority, worker)) {
+			// Our own deque may be empty while others are full
+			for (int i = -1; i < maxPoolSize && dropped == null; i++) {
+				PoolWorker victim = i < 0 ? worker : threads.get(i);
+				if (victim != null) {
+					dropped = victim.pollLocalLast();
+				}
+			}
+		} else {
+			dropped = queues[priority.ordinal()].poll();
+		}
+		if (dropped instanceof TrackedJob) {
+			((TrackedJob) dropped).rejected(new RejectedExecutionException("Discarded, WorkQueue was full"));
+		}
+	}
+
+	/**
+	 * @param policy
+	 * @return how often jobs did not fit into the queue and the given policy was
+	 * 		applied; BLOCK submitted by a worker is counted as CALLER_RUNS
+	 */
+	public long getSaturationCount(SaturationPolicy policy) {
+		return saturationCounts[policy.ordinal()].sum();
+	}
+
+	/**
+	 * @return what execute() does while the queue is full
+	 */
+	public SaturationPolicy getSaturationPolicy() {
+		return saturationPolicy;
+	}
+
+	/**
+	 * @return maximum number of waiting jobs of each priority
+	 */
+	public int getCapacity() {
+		return queues[0].capacity();
 	}
 
 	/**
@@ -52,50 +768,598 @@ public class WorkQueue {
 	 */
 	public void shutdown() {
 		running = false;
-		synchronized(queue) {
-            queue.notifyAll();
-        }
+		if (taskThreadFactory != null) {
+			signalTermination();
+			return;
+		}
+		for (int i = 0; i < maxPoolSize; i++) {
+			PoolWorker worker = threads.get(i);
+			if (worker != null) {
+				LockSupport.unpark(worker);
+			}
+		}
 	}
 
 	/**
 	 * Block until all jobs in the queue are complete.
 	 */
 	public void awaitTermination() {
+		if (taskThreadFactory != null) {
+			Thread current = Thread.currentThread();
+			while (!isTerminated()) {
+				terminationWaiters.add(current);
+				// Re-check after enqueueing, the last job may have finished in the meantime
+				if (!isTerminated()) {
+					LockSupport.park(this);
+				}
+				terminationWaiters.remove(current);
+			}
+			return;
+		}
 		// Join to all threads to wait until they are done.
-		for (int i = 0; i < threads.length; i++) {
+		while (poolSize.get() > 0) {
+			for (int i = 0; i < maxPoolSize; i++) {
+				PoolWorker worker = threads.get(i);
+				if (worker != null) {
+					try {
+						worker.join();
+					} catch (InterruptedException ignore) {
+					}
+				}
+			}
+			// A worker may be starting and not have its slot yet
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return true if this queue is in work-stealing mode
+	 */
+	public boolean isWorkStealing() {
+		return workStealing;
+	}
+
+	/**
+	 * @return the current thread if it is a worker of this queue, otherwise null
+	 */
+	private PoolWorker currentWorker() {
+		Thread current = Thread.currentThread();
+		if (current instanceof PoolWorker && ((PoolWorker) current).owner() == this) {
+			return (PoolWorker) current;
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if a job is waiting in the shared queue or in any worker deque
+	 */
+	private boolean hasWork() {
+		if (!isSharedEmpty()) {
+			return true;
+		}
+		if (workStealing) {
+			for (int i = 0; i < maxPoolSize; i++) {
+				PoolWorker worker = threads.get(i);
+				if (worker != null && !worker.local.isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called after a job was queued: unparks an idle worker, or if there is
+	 * none, starts a new one if the pool is not at its maximum size.
+	 */
+	private void signalWork() {
+		if (taskThreadFactory != null) {
+			startTaskThreads();
+			return;
+		}
+		if (!wakeIdleWorker()) {
+			addWorker();
+		}
+	}
+
+	/**
+	 * Unparks one idle worker, if there is any. Stale entries are skipped.
+	 * @return true if a worker was unparked
+	 */
+	private boolean wakeIdleWorker() {
+		PoolWorker worker;
+		while ((worker = idleWorkers.poll()) != null) {
+			if (worker.parked.compareAndSet(true, false)) {
+				LockSupport.unpark(worker);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Starts a new worker, unless the pool is at its maximum size.
+	 */
+	private void addWorker() {
+		int size;
+		do {
+			size = poolSize.get();
+			if (size >= maxPoolSize) {
+				return;
+			}
+		} while (!poolSize.compareAndSet(size, size + 1));
+		PoolWorker worker = new PoolWorker();
+		// A free slot exists, but a retiring worker may still be leaving it
+		int slot = 0;
+		while (!threads.compareAndSet(slot, null, worker)) {
+			slot = (slot + 1) % maxPoolSize;
+		}
+		worker.slot = slot;
+		worker.setName(name + "-" + slot);
+		worker.start();
+	}
+
+	/**
+	 * Lets an idle worker beyond the core leave the pool. If a job arrived in
+	 * the meantime, the worker stays, since the producer may have counted on it.
+	 * This holds after shutdown() too: queued jobs still have to run, and no
+	 * new worker is started for them any more.
+	 * @return true if the worker has to exit
+	 */
+	private boolean tryRetire() {
+		int size;
+		do {
+			size = poolSize.get();
+			if (size <= corePoolSize) {
+				return false;
+			}
+		} while (!poolSize.compareAndSet(size, size - 1));
+		if (hasWork()) {
+			do {
+				size = poolSize.get();
+				if (size >= maxPoolSize) {
+					// A new worker took our place
+					return true;
+				}
+			} while (!poolSize.compareAndSet(size, size + 1));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Thread-per-task mode: starts a thread for each waiting job, as long as
+	 * fewer than maxPoolSize jobs are running. Called after a job was queued
+	 * and after a job finished.
+	 */
+	private void startTaskThreads() {
+		while (!isSharedEmpty()) {
+			int inFlight = poolSize.get();
+			if (inFlight >= maxPoolSize) {
+				// A finishing job will call us again
+				return;
+			}
+			if (!poolSize.compareAndSet(inFlight, inFlight + 1)) {
+				continue;
+			}
+			Runnable r = pollShared(taskTurns.getAndIncrement());
+			if (r == null) {
+				// Taken by someone else, or not yet published
+				poolSize.decrementAndGet();
+				continue;
+			}
+			Thread t = taskThreadFactory.newThread(new TaskRunner(r));
+			t.setName(name + "-task");
+			t.start();
+		}
+	}
+
+	/**
+	 * @return true if shutdown() was called and all jobs of a thread-per-task queue are done
+	 */
+	private boolean isTerminated() {
+		return !running && poolSize.get() == 0 && isSharedEmpty();
+	}
+
+	/**
+	 * Wakes up the threads in awaitTermination() once the last job is done.
+	 */
+	private void signalTermination() {
+		if (isTerminated()) {
+			for (Thread t : terminationWaiters) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	/**
+	 * Runs one job on its own thread in thread-per-task mode.
+	 */
+	private final class TaskRunner implements Runnable {
+		private final Runnable r;
+
+		TaskRunner(Runnable r) {
+			this.r = r;
+		}
+
+		@Override
+		public void run() {
 			try {
-				threads[i].join();
-			} catch (InterruptedException ignore) {
+				runJob(r);
+			} finally {
+				poolSize.decrementAndGet();
+				startTaskThreads();
+				if (!running) {
+					signalTermination();
+				}
 			}
 		}
 	}
-	
+
+	/**
+	 * @return number of live workers, in thread-per-task mode the number of running jobs
+	 */
+	public int getPoolSize() {
+		return poolSize.get();
+	}
+
+	/**
+	 * @return number of workers that are kept when idle
+	 */
+	public int getCorePoolSize() {
+		return corePoolSize;
+	}
+
+	/**
+	 * @return maximum number of workers
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * @return number of jobs being run right now, by workers or by callers
+	 */
+	public int getActiveCount() {
+		return (int) activeJobs.sum();
+	}
+
+	/**
+	 * @return number of jobs waiting to run, in the shared queues, the worker
+	 * 		deques and the lanes; jobs a worker has taken in a batch are not counted
+	 */
+	public int getQueuedCount() {
+		int queued = localJobs.get() + keyedJobs.get();
+		for (MpmcArrayQueue<Runnable> q : queues) {
+			queued += q.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * @return number of jobs run so far, including ones that threw an exception
+	 * 		and ones the caller ran because the queue was full
+	 */
+	public long getCompletedCount() {
+		return completedJobs.sum();
+	}
+
+	/**
+	 * @return the name and a snapshot of the pool size and job counts
+	 */
+	@Override
+	public String toString() {
+		long saturated = 0L;
+		for (LongAdder count : saturationCounts) {
+			saturated += count.sum();
+		}
+		return name + "[pool " + getPoolSize() + "/" + maxPoolSize
+				+ ", active " + getActiveCount()
+				+ ", queued " + getQueuedCount()
+				+ ", completed " + getCompletedCount()
+				+ ", saturated " + saturated
+				+ (running ? "" : ", shut down") + "]";
+	}
+
+	/**
+	 * A job whose submitter waits for it, and has to be told if it will never run.
+	 */
+	abstract static class TrackedJob implements Runnable {
+		/**
+		 * Called instead of run() if the job is dropped or not accepted.
+		 * @param e - the reason
+		 */
+		abstract void rejected(RejectedExecutionException e);
+	}
+
+	/**
+	 * The jobs of the keys that hash to one lane. While it has jobs, the lane
+	 * is queued or running exactly once, which keeps its jobs in order.
+	 */
+	private final class KeyLane extends TrackedJob {
+		private final ConcurrentLinkedQueue<Runnable> jobs = new ConcurrentLinkedQueue<Runnable>();
+		// True while the lane is queued or running
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/**
+		 * Queues the lane, unless it is queued or running already. The lane is
+		 * not subject to the saturation policy, its jobs have been counted.
+		 * @param worker - the current thread if it is one of our workers, otherwise null
+		 */
+		void schedule(PoolWorker worker) {
+			if (!scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			while (!offer(this, Priority.NORMAL, worker)) {
+				if (worker != null) {
+					// Waiting could deadlock the pool, run the lane here instead
+					run();
+					return;
+				}
+				LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+			}
+			signalWork();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable r;
+				for (int i = 0; i < LANE_BATCH && (r = jobs.poll()) != null; i++) {
+					keyedJobs.decrementAndGet();
+					activeJobs.increment();
+					try {
+						r.run();
+					}
+					catch (RuntimeException ignore) {
+					}
+					finally {
+						activeJobs.decrement();
+						completedJobs.increment();
+					}
+				}
+				scheduled.set(false);
+				// Re-check after clearing the flag, a job may have been added in the meantime
+				if (jobs.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return;
+				}
+				// Let other jobs go first, unless there is no room, then go on here
+				if (offer(this, Priority.NORMAL, currentWorker())) {
+					signalWork();
+					return;
+				}
+			}
+		}
+
+		@Override
+		void rejected(RejectedExecutionException e) {
+			// Dropped by DISCARD_OLDEST, the jobs of the lane still have to run in order
+			run();
+		}
+	}
+
+	/**
+	 * A job submitted with submit(), completes its future.
+	 */
+	private static final class FutureJob<T> extends TrackedJob {
+		private final Callable<T> task;
+		private final CompletableFuture<T> future;
+
+		FutureJob(Callable<T> task) {
+			this.task = task;
+			future = new CompletableFuture<T>();
+		}
+
+		@Override
+		public void run() {
+			if (future.isDone()) {
+				// Cancelled by the submitter
+				return;
+			}
+			try {
+				future.complete(task.call());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}
+
+		@Override
+		void rejected(RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+	}
+
 	private class PoolWorker extends Thread {
+		// True while registered in idleWorkers and not yet woken up
+		private final AtomicBoolean parked = new AtomicBoolean();
+		// Jobs submitted by this worker, only used in work-stealing mode
+		private final ConcurrentLinkedDeque<Runnable> local = new ConcurrentLinkedDeque<Runnable>();
+		// Index in threads, set before the worker starts
+		private int slot;
+		// Incremented on every poll, see PRIORITY_TURNS
+		private int turns;
+		// Jobs taken from a shared queue and not run yet, from batchNext to batchSize
+		private final Runnable[] batch = new Runnable[DRAIN_BATCH];
+		private int batchNext;
+		private int batchSize;
+
+		private WorkQueue owner() {
+			return WorkQueue.this;
+		}
+
+		private Runnable pollLocalFirst() {
+			Runnable r = local.pollFirst();
+			if (r != null) {
+				localJobs.decrementAndGet();
+			}
+			return r;
+		}
+
+		private Runnable pollLocalLast() {
+			Runnable r = local.pollLast();
+			if (r != null) {
+				localJobs.decrementAndGet();
+			}
+			return r;
+		}
+
         public void run() {
-            Runnable r;            
-            while (true) {
-                synchronized(queue) {
-                    while (running && queue.isEmpty()) {
-                        try
-                        {
-                            queue.wait();
-                        }
-                        catch (InterruptedException ignored)
-                        {
-                        }
-                    }
-                    if (!running && queue.isEmpty()) {
-                    	break;
-                    }
-					r = (Runnable) queue.removeFirst();
-                }
-                try {
-                    r.run();
-                }
-                catch (RuntimeException ignore) {
-                }
+            Runnable r;
+            int spins = IDLE_SPINS;
+            boolean retired = false;
+            try {
+	            while (true) {
+	            	r = nextJob();
+	            	if (r == null) {
+	            		if (!running && !hasWork()) {
+	            			break;
+	            		}
+	            		if (spins > 0) {
+	            			spins--;
+	            		} else {
+	            			if (!awaitWork()) {
+	            				retired = true;
+	            				break;
+	            			}
+	            			spins = IDLE_SPINS;
+	            		}
+	            		continue;
+	            	}
+	            	spins = IDLE_SPINS;
+	            	runJob(r);
+	            }
+            } finally {
+            	threads.compareAndSet(slot, this, null);
+            	if (!retired) {
+            		// Retired workers have already left the count
+            		poolSize.decrementAndGet();
+            	}
             }
         }
+
+        /**
+         * @return a job from the own deque, the shared queues, or stolen from
+         * another worker, in this order, except that on HIGH turns a waiting
+         * HIGH job comes first; null if none was found
+         */
+        private Runnable nextJob() {
+        	int turn = turns++;
+        	if (!workStealing) {
+        		if (batchNext < batchSize) {
+        			Runnable r = batch[batchNext];
+        			batch[batchNext++] = null;
+        			return r;
+        		}
+        		return drainShared(turn);
+        	}
+        	Runnable r = null;
+        	if (PRIORITY_TURNS[(turn & Integer.MAX_VALUE) % PRIORITY_TURNS.length] == Priority.HIGH) {
+        		// Urgent jobs of any worker come before our own
+        		r = queues[Priority.HIGH.ordinal()].poll();
+        	}
+        	if (r == null) {
+        		r = pollLocalFirst();
+        	}
+        	if (r == null) {
+        		r = pollShared(turn);
+        	}
+        	if (r == null) {
+        		// Start at a random victim, so thieves spread over the workers
+        		int start = ThreadLocalRandom.current().nextInt(maxPoolSize);
+        		for (int i = 0; i < maxPoolSize && r == null; i++) {
+        			PoolWorker victim = threads.get((start + i) % maxPoolSize);
+        			if (victim != null && victim != this) {
+        				r = victim.pollLocalLast();
+        			}
+        		}
+        	}
+        	return r;
+        }
+
+        /**
+         * Takes a batch of jobs from the shared queues, see pollShared() for the
+         * order in which the priorities are tried.
+         * @param turn
+         * @return the first job of the batch, the others are kept in batch; null
+         * if all shared queues are empty
+         */
+        private Runnable drainShared(int turn) {
+        	int first = PRIORITY_TURNS[(turn & Integer.MAX_VALUE) % PRIORITY_TURNS.length].ordinal();
+        	for (int i = -1; i < queues.length; i++) {
+        		int p = i < 0 ? first : i;
+        		if (i == first) {
+        			continue;
+        		}
+        		MpmcArrayQueue<Runnable> q = queues[p];
+        		int max = 1;
+        		if (!hasOtherPriorityWork(p)) {
+        			// No more than a fair share, so the other workers are not left idle
+        			max = Math.max(1, Math.min(batch.length, q.size() / Math.max(1, poolSize.get())));
+        		}
+        		int n = q.drain(batch, max);
+        		if (n > 0) {
+        			Runnable r = batch[0];
+        			batch[0] = null;
+        			batchNext = 1;
+        			batchSize = n;
+        			if (!q.isEmpty()) {
+        				signalWork();
+        			}
+        			return r;
+        		}
+        	}
+        	return null;
+        }
+
+        /**
+         * @param p - priority ordinal
+         * @return true if a shared queue of another priority has jobs waiting
+         */
+        private boolean hasOtherPriorityWork(int p) {
+        	for (int i = 0; i < queues.length; i++) {
+        		if (i != p && !queues[i].isEmpty()) {
+        			return true;
+        		}
+        	}
+        	return false;
+        }
+
+        /**
+         * Registers as idle and parks until execute() or shutdown() wakes this
+         * worker up. The queue is checked again after registering, so a job
+         * added in the meantime is not missed. A worker beyond the core gives up
+         * after the keep-alive time.
+         * @return false if the worker retired and has to exit
+         */
+        private boolean awaitWork() {
+        	parked.set(true);
+        	idleWorkers.add(this);
+        	if (hasWork() || !running) {
+        		// Our entry in idleWorkers becomes stale
+        		parked.set(false);
+        		return true;
+        	}
+        	long deadline = System.nanoTime() + keepAliveNanos;
+        	while (parked.get() && running) {
+        		if (poolSize.get() > corePoolSize) {
+        			long remaining = deadline - System.nanoTime();
+        			if (remaining <= 0L) {
+        				// Only retire if no producer is waking us up right now
+        				if (parked.compareAndSet(true, false)) {
+        					return !tryRetire();
+        				}
+        				break;
+        			}
+        			LockSupport.parkNanos(this, remaining);
+        		} else {
+        			LockSupport.park(this);
+        		}
+        		// A job may have left the interrupt status set, which would stop park() from blocking
+        		Thread.interrupted();
+        	}
+        	parked.set(false);
+        	return true;
+        }
     }
 
 }
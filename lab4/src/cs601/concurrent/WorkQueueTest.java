@@ -0,0 +1,459 @@
+package cs601.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the WorkQueue.
+ */
+public class WorkQueueTest {
+
+	@Test
+	public void testAllJobsRun() {
+		String testName = "testAllJobsRun";
+		final WorkQueue workQueue = new WorkQueue(4);
+		final AtomicInteger done = new AtomicInteger();
+		final Runnable job = new Runnable() {
+			public void run() {
+				done.incrementAndGet();
+			}
+		};
+		Thread[] producers = new Thread[4];
+		for (int t = 0; t < producers.length; t++) {
+			producers[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						workQueue.execute(job);
+						if (i % 10000 == 0) {
+							// Let the workers go idle now and then
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+							}
+						}
+					}
+				}
+			};
+			producers[t].start();
+		}
+		try {
+			for (Thread t : producers) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Not all jobs ran before termination. %n", testName), 400000, done.get());
+	}
+
+	@Test
+	public void testWorkStealing() {
+		String testName = "testWorkStealing";
+		final WorkQueue workQueue = new WorkQueue(4, true);
+		final AtomicInteger done = new AtomicInteger();
+		final Set<Thread> runners = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+		final CountDownLatch finished = new CountDownLatch(1000);
+		// One job that fans out into 1000 slow jobs on its worker's own deque
+		workQueue.execute(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 1000; i++) {
+					workQueue.execute(new Runnable() {
+						public void run() {
+							runners.add(Thread.currentThread());
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+							}
+							done.incrementAndGet();
+							finished.countDown();
+						}
+					});
+				}
+			}
+		});
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Not all local jobs ran. %n", testName), 1000, done.get());
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Idle workers did not steal. %n", testName), runners.size() > 1);
+	}
+
+	@Test
+	public void testSaturationPolicies() {
+		String testName = "testSaturationPolicies";
+		final AtomicInteger done = new AtomicInteger();
+		Runnable job = new Runnable() {
+			public void run() {
+				done.incrementAndGet();
+			}
+		};
+
+		for (WorkQueue.SaturationPolicy policy : WorkQueue.SaturationPolicy.values()) {
+			if (policy == WorkQueue.SaturationPolicy.BLOCK) {
+				continue;
+			}
+			final CountDownLatch release = new CountDownLatch(1);
+			final CountDownLatch started = new CountDownLatch(1);
+			Runnable blocker = new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			final WorkQueue workQueue = new WorkQueue(1, false, 2, policy);
+			done.set(0);
+			workQueue.execute(blocker);
+			try {
+				started.await();
+			} catch (InterruptedException e) {
+				Assert.fail();
+			}
+			// The only worker is busy: two jobs fit, the third one saturates
+			workQueue.execute(job);
+			workQueue.execute(job);
+			boolean rejected = false;
+			try {
+				workQueue.execute(job);
+			} catch (RejectedExecutionException e) {
+				rejected = true;
+			}
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Saturation not counted for %s. %n", testName, policy), 1, workQueue.getSaturationCount(policy));
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Only ABORT should throw, policy %s. %n", testName, policy),
+					policy == WorkQueue.SaturationPolicy.ABORT, rejected);
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Only CALLER_RUNS should run the job right away, policy %s. %n", testName, policy),
+					policy == WorkQueue.SaturationPolicy.CALLER_RUNS ? 1 : 0, done.get());
+			release.countDown();
+			workQueue.shutdown();
+			workQueue.awaitTermination();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong number of jobs ran with policy %s. %n", testName, policy),
+					policy == WorkQueue.SaturationPolicy.CALLER_RUNS ? 3 : 2, done.get());
+			// The blocker and every job that ran, also one the caller ran
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong number of completed jobs with policy %s. %n", testName, policy),
+					(long) done.get() + 1, workQueue.getCompletedCount());
+		}
+	}
+
+	@Test
+	public void testSubmitAndInvokeAll() {
+		String testName = "testSubmitAndInvokeAll";
+		WorkQueue workQueue = new WorkQueue(4);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 100; i++) {
+			final int n = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					if (n == 13) {
+						throw new IllegalStateException("unlucky");
+					}
+					return n * n;
+				}
+			});
+		}
+		List<CompletableFuture<Integer>> futures = workQueue.invokeAll(tasks);
+		for (int i = 0; i < futures.size(); i++) {
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" invokeAll returned before a task was done. %n", testName), futures.get(i).isDone());
+			if (i == 13) {
+				Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+						" Exception of the task not reported. %n", testName), futures.get(i).isCompletedExceptionally());
+			} else {
+				Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+						" Wrong result. %n", testName), Integer.valueOf(i * i), futures.get(i).join());
+			}
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Submit after shutdown not rejected. %n", testName),
+				workQueue.submit(tasks.get(0)).isCompletedExceptionally());
+	}
+
+	@Test
+	public void testElasticPoolSize() {
+		String testName = "testElasticPoolSize";
+		WorkQueue workQueue = new WorkQueue(1, 4, 50, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Workers started before the first job. %n", testName), 0, workQueue.getPoolSize());
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			workQueue.execute(new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+		}
+		try {
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+					" Pool did not grow for blocked jobs. %n", testName), started.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong pool size under load. %n", testName), 4, workQueue.getPoolSize());
+			release.countDown();
+			// Workers beyond the core retire after being idle for 50ms
+			long deadline = System.currentTimeMillis() + 10000L;
+			while (workQueue.getPoolSize() > 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		} catch (InterruptedException e) {
+			Assert.fail();
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Idle workers did not retire. %n", testName), 1, workQueue.getPoolSize());
+
+		final AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < 1000; i++) {
+			workQueue.execute(new Runnable() {
+				public void run() {
+					done.incrementAndGet();
+				}
+			});
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Jobs lost after the pool shrank. %n", testName), 1000, done.get());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Workers left after termination. %n", testName), 0, workQueue.getPoolSize());
+	}
+
+	@Test
+	public void testThreadPerTaskLimit() {
+		String testName = "testThreadPerTaskLimit";
+		WorkQueue workQueue = WorkQueue.newThreadPerTask(3);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < 50; i++) {
+			workQueue.execute(new Runnable() {
+				public void run() {
+					int now = running.incrementAndGet();
+					int max;
+					while (now > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, now)) {
+					}
+					try {
+						// Stands in for blocking I/O
+						Thread.sleep(2);
+					} catch (InterruptedException e) {
+					}
+					running.decrementAndGet();
+					done.incrementAndGet();
+				}
+			});
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Not all jobs ran before termination. %n", testName), 50, done.get());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Concurrency limit not reached or exceeded. %n", testName), 3, maxRunning.get());
+	}
+
+	@Test
+	public void testNameAndCounts() throws InterruptedException {
+		String testName = "testNameAndCounts";
+		WorkQueue workQueue = new WorkQueue(1).setName("parse");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+		workQueue.execute(new Runnable() {
+			public void run() {
+				threadNames.add(Thread.currentThread().getName());
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		started.await();
+		for (int i = 0; i < 5; i++) {
+			workQueue.execute(new Runnable() {
+				public void run() {
+				}
+			});
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of running jobs. %n", testName), 1, workQueue.getActiveCount());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of waiting jobs. %n", testName), 5, workQueue.getQueuedCount());
+		release.countDown();
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of completed jobs. %n", testName), 6L, workQueue.getCompletedCount());
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Worker not named after the queue. %n", testName), threadNames.get(0).startsWith("parse-"));
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" Name missing from toString(). %n", testName), workQueue.toString().startsWith("parse["));
+	}
+
+	@Test
+	public void testPriorities() throws InterruptedException {
+		String testName = "testPriorities";
+		WorkQueue workQueue = new WorkQueue(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		workQueue.execute(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		started.await();
+		for (int i = 0; i < 20; i++) {
+			workQueue.execute(recorder(order, "bulk"), WorkQueue.Priority.LOW);
+		}
+		for (int i = 0; i < 5; i++) {
+			workQueue.execute(recorder(order, "urgent"), WorkQueue.Priority.HIGH);
+		}
+		release.countDown();
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		// The LOW turn may come first, but only once every 7 turns
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" HIGH jobs waited behind LOW ones. %n", testName), 5, Collections.frequency(order.subList(0, 7), "urgent"));
+
+		workQueue = new WorkQueue(1);
+		final CountDownLatch started2 = new CountDownLatch(1);
+		final CountDownLatch release2 = new CountDownLatch(1);
+		order.clear();
+		workQueue.execute(new Runnable() {
+			public void run() {
+				started2.countDown();
+				try {
+					release2.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		started2.await();
+		workQueue.execute(recorder(order, "bulk"), WorkQueue.Priority.LOW);
+		for (int i = 0; i < 50; i++) {
+			workQueue.execute(recorder(order, "urgent"), WorkQueue.Priority.HIGH);
+		}
+		release2.countDown();
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertTrue(String.format("%n" + "Test Case: %s%n" +
+				" LOW job starved by HIGH ones. %n", testName), order.subList(0, 7).contains("bulk"));
+	}
+
+	private static Runnable recorder(final List<String> order, final String label) {
+		return new Runnable() {
+			public void run() {
+				order.add(label);
+			}
+		};
+	}
+
+	@Test
+	public void testKeyedJobsRunInOrder() {
+		String testName = "testKeyedJobsRunInOrder";
+		for (WorkQueue workQueue : new WorkQueue[] {
+				new WorkQueue(4), new WorkQueue(4, true), WorkQueue.newThreadPerTask(4) }) {
+			final int keys = 10;
+			final int perKey = 500;
+			// Plain arrays, the lanes have to make the updates of a key visible to each other
+			final int[] next = new int[keys];
+			final AtomicInteger outOfOrder = new AtomicInteger();
+			final AtomicInteger overlapping = new AtomicInteger();
+			final AtomicInteger[] inside = new AtomicInteger[keys];
+			for (int k = 0; k < keys; k++) {
+				inside[k] = new AtomicInteger();
+			}
+			for (int i = 0; i < perKey; i++) {
+				for (int k = 0; k < keys; k++) {
+					final int key = k;
+					final int seq = i;
+					workQueue.execute("hotel" + key, new Runnable() {
+						public void run() {
+							if (inside[key].incrementAndGet() != 1) {
+								overlapping.incrementAndGet();
+							}
+							if (next[key] != seq) {
+								outOfOrder.incrementAndGet();
+							}
+							next[key] = seq + 1;
+							inside[key].decrementAndGet();
+						}
+					});
+				}
+			}
+			workQueue.shutdown();
+			workQueue.awaitTermination();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Jobs of a key ran out of order. %n", testName), 0, outOfOrder.get());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Jobs of a key ran at the same time. %n", testName), 0, overlapping.get());
+			for (int k = 0; k < keys; k++) {
+				Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+						" Not all jobs of a key ran. %n", testName), perKey, next[k]);
+			}
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+					" Wrong number of completed jobs. %n", testName), (long) keys * perKey, workQueue.getCompletedCount());
+		}
+	}
+
+	@Test
+	public void testExecuteAll() {
+		String testName = "testExecuteAll";
+		// Capacity 64, so most batches only fit in part
+		WorkQueue workQueue = new WorkQueue(4, false, 64, WorkQueue.SaturationPolicy.BLOCK);
+		final AtomicInteger done = new AtomicInteger();
+		List<Runnable> batch = new ArrayList<Runnable>();
+		for (int i = 0; i < 100; i++) {
+			batch.add(new Runnable() {
+				public void run() {
+					done.incrementAndGet();
+				}
+			});
+		}
+		for (int i = 0; i < 100; i++) {
+			workQueue.executeAll(batch);
+		}
+		workQueue.shutdown();
+		workQueue.awaitTermination();
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Jobs lost. %n", testName), 10000, done.get());
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n" +
+				" Wrong number of completed jobs. %n", testName), 10000L, workQueue.getCompletedCount());
+	}
+}
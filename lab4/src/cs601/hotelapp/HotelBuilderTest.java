@@ -157,6 +157,213 @@ public class HotelBuilderTest {
 		}
 	}
 
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testLoadHotelInfoMappedAndStreamed() {
+		// Loads the same hotel file from a mapped file and from a stream
+		String testName = "testLoadHotelInfoMappedAndStreamed";
+		String expected = "Hilton Garden Inn San Francisco/Oakland Bay Bridge: 10323\n"
+				+ "1800 Powell Street\nEmeryville, CA";
+		for (boolean mapped : new boolean[] { true, false }) {
+			ThreadSafeHotelData hdata = new ThreadSafeHotelData();
+			HotelDataBuilder builder = new HotelDataBuilder(hdata);
+			builder.setMemoryMapped(mapped);
+			builder.loadHotelInfo(TestUtils.INPUT_DIR + File.separator + "hotels1.json");
+			builder.shutdown();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), Arrays.asList("10323"), hdata.getHotels());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), expected, hdata.toString("10323").trim());
+		}
+	}
+
+	/**
+	 * @param hotelId
+	 * 			- hotel of all reviews
+	 * @param reviewIds
+	 * 			- one review per id, with the text "Text id" and the id as user nickname
+	 * @return a review file
+	 */
+	private static byte[] reviewFile(String hotelId, String... reviewIds) throws UnsupportedEncodingException {
+		StringBuilder sb = new StringBuilder("{\"reviewDetails\": {\"reviewCollection\": {\"review\": [");
+		for (int i = 0; i < reviewIds.length; i++) {
+			sb.append(i > 0 ? ", " : "").append("{\"hotelId\": \"" + hotelId + "\", \"reviewId\": \"" + reviewIds[i]
+					+ "\", \"ratingOverall\": 5, \"title\": \"Title\", \"reviewText\": \"Text " + reviewIds[i]
+					+ "\", \"isRecommended\": \"YES\", \"userNickname\": \"" + reviewIds[i]
+					+ "\", \"reviewSubmissionTime\": \"2016-06-20T17:50:24Z\"}");
+		}
+		return sb.append("]}}}").toString().getBytes("UTF-8");
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testLoadReviewsNestedDirectories() throws IOException {
+		// One review file in each of root, root/a, root/a/b and root/c, one hotel each
+		String testName = "testLoadReviewsNestedDirectories";
+		String[] hotelIds = { "12539", "16955", "1047", "10323" };
+		Path root = Files.createTempDirectory("reviews");
+		Path[] dirs = { root, root.resolve("a"), root.resolve("a").resolve("b"), root.resolve("c") };
+		List<Path> created = new ArrayList<Path>();
+		try {
+			for (int i = 0; i < dirs.length; i++) {
+				Files.createDirectories(dirs[i]);
+				Path file = dirs[i].resolve("review" + i + ".json");
+				Files.write(file, reviewFile(hotelIds[i], "r" + i));
+				created.add(file);
+			}
+			ThreadSafeHotelData hdata = new ThreadSafeHotelData();
+			HotelDataBuilder builder = new HotelDataBuilder(hdata, new WorkQueue(THREADS));
+			builder.loadHotelInfo(TestUtils.INPUT_DIR + File.separator + "hotels4.json");
+			builder.loadReviews(root);
+			builder.shutdown();
+
+			ReviewLoadStatistics statistics = builder.getReviewLoadStatistics();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, statistics.getDirectories());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, statistics.getFilesFound());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, statistics.getFilesParsed());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, statistics.getReviews());
+			for (int i = 0; i < dirs.length; i++) {
+				Assert.assertTrue(String.format("%n" + "Test Case: %s%n" + " Missing review %d%n", testName, i),
+						hdata.toString(hotelIds[i]).contains("Text r" + i));
+			}
+		} finally {
+			for (Path file : created) {
+				Files.delete(file);
+			}
+			for (int i = dirs.length - 1; i >= 0; i--) {
+				Files.deleteIfExists(dirs[i]);
+			}
+		}
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testLoadReviewsBatchedAndSplit() throws IOException {
+		// Ten small files and one large file of the same hotel, a few hundred bytes per task
+		String testName = "testLoadReviewsBatchedAndSplit";
+		Path root = Files.createTempDirectory("reviews");
+		List<Path> created = new ArrayList<Path>();
+		try {
+			int review = 0;
+			for (int i = 0; i <= 10; i++) {
+				String[] reviewIds = new String[i < 10 ? 1 : 40];
+				for (int j = 0; j < reviewIds.length; j++, review++) {
+					reviewIds[j] = "r" + review;
+				}
+				Path file = root.resolve("review" + i + ".json");
+				Files.write(file, reviewFile("10323", reviewIds));
+				created.add(file);
+			}
+			for (boolean mapped : new boolean[] { true, false }) {
+				ThreadSafeHotelData hdata = new ThreadSafeHotelData();
+				HotelDataBuilder builder = new HotelDataBuilder(hdata, new WorkQueue(THREADS));
+				builder.setMemoryMapped(mapped);
+				builder.setBytesPerTask(600);
+				builder.loadHotelInfo(TestUtils.INPUT_DIR + File.separator + "hotels1.json");
+				builder.loadReviews(root);
+				builder.shutdown();
+
+				ReviewLoadStatistics statistics = builder.getReviewLoadStatistics();
+				Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 11, statistics.getFilesParsed());
+				Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), review, statistics.getReviews());
+				String hotel = hdata.toString("10323");
+				for (int i = 0; i < review; i++) {
+					Assert.assertTrue(String.format("%n" + "Test Case: %s%n" + " Missing review %d%n", testName, i),
+							hotel.contains("Text r" + i + "\n"));
+				}
+			}
+		} finally {
+			for (Path file : created) {
+				Files.delete(file);
+			}
+			Files.delete(root);
+		}
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testReloadReviews() throws IOException {
+		String testName = "testReloadReviews";
+		Path root = Files.createTempDirectory("reviews");
+		Path a = root.resolve("a.json");
+		Path b = root.resolve("b.json");
+		Path c = root.resolve("c.json");
+		try {
+			Files.write(a, reviewFile("10323", "a1", "a2"));
+			Files.write(b, reviewFile("10323", "b1"));
+			ThreadSafeHotelData hdata = new ThreadSafeHotelData();
+			HotelDataBuilder builder = new HotelDataBuilder(hdata, new WorkQueue(THREADS));
+			builder.loadHotelInfo(TestUtils.INPUT_DIR + File.separator + "hotels1.json");
+			builder.reloadReviews(root);
+			builder.waitUntilReviewsLoaded();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 3,
+					builder.getReviewLoadStatistics().getReviews());
+
+			// Nothing changed, nothing is read
+			builder.reloadReviews(root);
+			builder.waitUntilReviewsLoaded();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 3,
+					builder.getReviewLoadStatistics().getReviews());
+
+			// a changed, b deleted, c new
+			Files.write(a, reviewFile("10323", "a2", "a3", "a4"));
+			Files.delete(b);
+			Files.write(c, reviewFile("10323", "c1"));
+			builder.reloadReviews(root);
+			builder.shutdown();
+
+			String hotel = hdata.toString("10323");
+			for (String reviewId : new String[] { "a2", "a3", "a4", "c1" }) {
+				Assert.assertTrue(String.format("%n" + "Test Case: %s%n" + " Missing review %s%n", testName, reviewId),
+						hotel.contains("Text " + reviewId));
+			}
+			for (String reviewId : new String[] { "a1", "b1" }) {
+				Assert.assertFalse(String.format("%n" + "Test Case: %s%n" + " Old review %s%n", testName, reviewId),
+						hotel.contains("Text " + reviewId));
+			}
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, hotel.split("Review by").length - 1);
+			ReviewManifest manifest = builder.getReviewManifest();
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 2, manifest.getFiles().size());
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 3,
+					manifest.get(a.toAbsolutePath().normalize()).getReviews());
+		} finally {
+			Files.deleteIfExists(a);
+			Files.deleteIfExists(b);
+			Files.deleteIfExists(c);
+			Files.delete(root);
+		}
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testWatchReviews() throws IOException, InterruptedException {
+		String testName = "testWatchReviews";
+		Path root = Files.createTempDirectory("reviews");
+		Path incoming = Files.createTempFile("review", ".json");
+		Path a = root.resolve("a.json");
+		Path b = root.resolve("b.json");
+		try {
+			Files.write(a, reviewFile("10323", "a1"));
+			ThreadSafeHotelData hdata = new ThreadSafeHotelData();
+			HotelDataBuilder builder = new HotelDataBuilder(hdata, new WorkQueue(THREADS));
+			builder.loadHotelInfo(TestUtils.INPUT_DIR + File.separator + "hotels1.json");
+			builder.watchReviews(root);
+			// Lands complete, like a new file should
+			Files.write(incoming, reviewFile("10323", "b1"));
+			Files.move(incoming, b, StandardCopyOption.ATOMIC_MOVE);
+			// Events come as the file system reports them, wait at most half the timeout
+			long deadline = System.currentTimeMillis() + TestUtils.TIMEOUT / 2;
+			while (!hdata.toString("10323").contains("Text b1") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			builder.shutdown();
+
+			String hotel = hdata.toString("10323");
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" + " Existing file not loaded %n", testName),
+					hotel.contains("Text a1"));
+			Assert.assertTrue(String.format("%n" + "Test Case: %s%n" + " New file not loaded %n", testName),
+					hotel.contains("Text b1"));
+		} finally {
+			Files.deleteIfExists(incoming);
+			Files.deleteIfExists(a);
+			Files.deleteIfExists(b);
+			Files.delete(root);
+		}
+	}
+
 	@Test(timeout = TestUtils.TIMEOUT)
 	public void testConcurrentBuildSmallSet() {
 		String testName = "testConcurrentBuildSmallSet";
@@ -1,20 +1,38 @@
 package cs601.hotelapp;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
@@ -24,23 +42,99 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import cs601.concurrent.TaskGroup;
 import cs601.concurrent.WorkQueue;
 
+/**
+ * Loads hotels, reviews and attractions into a ThreadSafeHotelData.
+ *
+ * Parsing review files keeps the processors busy, while fetching attractions
+ * mostly waits for the network, so the two kinds of jobs run in separate pools
+ * (bulkheads): PARSE_POOL and FETCH_POOL. Each pool is sized on its own, and a
+ * stall in one, e.g. a slow remote server, does not take threads from the
+ * other. getPools() gives access to both for monitoring.
+ *
+ * Bulk loading (loadReviews, fetchAttractions) is queued with LOW priority, so
+ * latency-sensitive requests like refreshAttractions run ahead of a backlog.
+ *
+ * Review directories are listed by jobs of their own, one per directory, so
+ * subdirectories are listed in parallel and files are parsed while the rest
+ * of the tree is still being discovered. getReviewLoadStatistics() reports
+ * the throughput of both stages. The listing also shapes the parsing jobs by
+ * file size, see setBytesPerTask: small files are read in batches, so the
+ * cost of a job is spread over many of them, and the review array of a large
+ * file is split into ranges, so it does not hold up the end of the load.
+ *
+ * reloadReviews loads a directory incrementally, it reads only the files
+ * that are new or changed according to a ReviewManifest, and watchReviews
+ * reloads the files of a directory as they change.
+ *
+ * Parsed reviews are merged by one job per hotel, keyed by the hotel id, so
+ * merges of the same hotel run one after another instead of competing for its
+ * lock, while different hotels are merged in parallel.
+ */
 public class HotelDataBuilder {	
+	// Names of the pools, by kind of job
+	public static final String PARSE_POOL = "parse";
+	public static final String FETCH_POOL = "fetch";
+	// Pending jobs the default queue holds before loadReviews waits for the workers
+	private static final int QUEUE_CAPACITY = 1024;
+	// Attraction requests in flight at the same time, they mostly wait for the network
+	private static final int FETCH_CONCURRENCY = 64;
+	// Review bytes per loading job, enough to outweigh the cost of a job
+	public static final long DEFAULT_BYTES_PER_TASK = 1L << 20;
 	private ThreadSafeHotelData tshdata;
+	// Runs the review loading jobs
 	private final WorkQueue workQueue;
-	private volatile int numTasks; // how many runnable tasks are pending
+	// Runs the attraction requests, one (virtual, if available) thread each
+	private final WorkQueue fetchQueue;
+	// Both pools by name, in the order of the stages
+	private final Map<String, WorkQueue> pools;
+	// Read data files by mapping them into memory, see setMemoryMapped
+	private volatile boolean memoryMapped = true;
+	// Review bytes a loading job is planned to read, see setBytesPerTask
+	private volatile long bytesPerTask = DEFAULT_BYTES_PER_TASK;
+	// Pending jobs, one group per kind so each can be waited for on its own
+	private final TaskGroup reviewTasks;
+	private final TaskGroup attractionTasks;
+	// Throughput of loadReviews
+	private final ReviewLoadStatistics reviewLoadStatistics = new ReviewLoadStatistics();
+	// Files loaded by reloadReviews
+	private final ReviewManifest reviewManifest = new ReviewManifest();
+	// Watching a review directory, see watchReviews; guarded by this
+	private ReviewWatcher reviewWatcher;
 	
 	public HotelDataBuilder(ThreadSafeHotelData tshdata) {
-		this.tshdata = tshdata;
-		workQueue = new WorkQueue();
-		numTasks = 0;
+		this(tshdata, new WorkQueue(QUEUE_CAPACITY, WorkQueue.SaturationPolicy.BLOCK).setName(PARSE_POOL));
 	}
 	
 	public HotelDataBuilder(ThreadSafeHotelData tshdata, WorkQueue q) {
+		this(tshdata, q, WorkQueue.newThreadPerTask(FETCH_CONCURRENCY).setName(FETCH_POOL));
+	}
+	
+	/**
+	 * 
+	 * @param tshdata
+	 * 			- data the builder loads into
+	 * @param q
+	 * 			- runs the review loading jobs
+	 * @param fetchQueue
+	 * 			- runs the attraction requests, see WorkQueue.newThreadPerTask;
+	 * 			must not be the same queue as q
+	 */
+	public HotelDataBuilder(ThreadSafeHotelData tshdata, WorkQueue q, WorkQueue fetchQueue) {
+		if (q == fetchQueue) {
+			throw new IllegalArgumentException("Parsing and fetching need separate pools");
+		}
 		this.tshdata = tshdata;
 		workQueue = q;
-		numTasks = 0;
+		this.fetchQueue = fetchQueue;
+		reviewTasks = new TaskGroup(q);
+		attractionTasks = new TaskGroup(fetchQueue);
+		Map<String, WorkQueue> byName = new LinkedHashMap<String, WorkQueue>();
+		byName.put(PARSE_POOL, q);
+		byName.put(FETCH_POOL, fetchQueue);
+		pools = Collections.unmodifiableMap(byName);
 	}
 	
 	/**
@@ -59,113 +153,539 @@ public class HotelDataBuilder {
 		
 		//Get the file directory and find the path
 		Path jsonFileNameDirectory = Paths.get(jsonFilename);
-		String jsonFilenameString = jsonFileNameDirectory.toAbsolutePath().toString();
 		
-		
-		JSONParser parser = new JSONParser(); 
-		try {
-			Object object = parser.parse(new FileReader(jsonFilenameString));
-			JSONObject jsonObject = (JSONObject) object;
-			
-			JSONArray listOfHotel = (JSONArray) jsonObject.get("sr");
-			JSONObject jsonObjectHotel;
-			
-			for (int i=0; i<listOfHotel.size();i++) {
-				jsonObjectHotel = (JSONObject) listOfHotel.get(i);
-				
-				// Get hotelId.
-				String hotelId = (String) jsonObjectHotel.get("id");
-				// Get hotelName.
-				String hotelName = (String) jsonObjectHotel.get("f");
-				// Get hotelCity.
-				String hotelCity = (String) jsonObjectHotel.get("ci");
-				// Get hotelState
-				String hotelState = (String) jsonObjectHotel.get("pr");
-				// Get hotelStreetAddress
-				String hotelStreetAddress = (String) jsonObjectHotel.get("ad");
-				//Create jsonObjectHotelLL to get Lat and Lng
-				JSONObject jsonObjectHotelLL = (JSONObject) jsonObjectHotel.get("ll");
-				// Get hotelLat
-				double hotelLat = Double.parseDouble((String) jsonObjectHotelLL.get("lat"));
-				// Get hotelLon
-				double hotelLon = Double.parseDouble((String) jsonObjectHotelLL.get("lng"));
-				
-				// Add to the hotelsGivenByHotelId
-				tshdata.addHotel(hotelId, hotelName, hotelCity, hotelState, hotelStreetAddress, hotelLat, hotelLon);
-				
-			}
-			
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+		//Hotels are added while the file is read, no JSON tree is built
+		try (HotelReader reader = newHotelReader(jsonFileNameDirectory)) {
+			reader.read(new HotelReader.Handler() {
+				@Override
+				public void hotel(String hotelId, String hotelName, String hotelCity, String hotelState,
+						String hotelStreetAddress, double hotelLat, double hotelLon) {
+					// Add to the hotelsGivenByHotelId
+					tshdata.addHotel(hotelId, hotelName, hotelCity, hotelState, hotelStreetAddress, hotelLat, hotelLon);
+				}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (org.json.simple.parser.ParseException e) {
-			e.printStackTrace();
 		}
 	
 	}
 
+	/**
+	 * Chooses how data files are read. Memory-mapped files (the default) are
+	 * parsed in place, streams are read through a small buffer, which suits
+	 * file systems where mapping is slow or not supported. Both are parsed as
+	 * UTF-8 bytes.
+	 * 
+	 * @param memoryMapped
+	 * 			- true to map the files with FileChannel.map
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Sets how many bytes of review files one loading job reads, for the
+	 * following loadReviews calls: smaller files are read in batches, a file
+	 * of twice the size or more is split into parts read in parallel.
+	 * 
+	 * @param bytesPerTask
+	 * 			- DEFAULT_BYTES_PER_TASK unless set
+	 */
+	public void setBytesPerTask(long bytesPerTask) {
+		if (bytesPerTask <= 0) {
+			throw new IllegalArgumentException("bytesPerTask must be positive: " + bytesPerTask);
+		}
+		this.bytesPerTask = bytesPerTask;
+	}
+
+	private HotelReader newHotelReader(Path p) throws IOException {
+		return memoryMapped ? new HotelReader(JsonByteReader.map(p)) : new HotelReader(Files.newInputStream(p));
+	}
+
+	private ReviewReader newReviewReader(Path p) throws IOException {
+		return memoryMapped ? new ReviewReader(JsonByteReader.map(p)) : new ReviewReader(Files.newInputStream(p));
+	}
+
+	/**
+	 * Collects the reviews one job reads, in local data that is merged into
+	 * tshdata when the job is done. Made by the job when it runs, not when it
+	 * is queued, so waiting jobs stay small.
+	 */
+	private class LocalReviews implements ReviewReader.Handler {
+		// Only this job adds to it, one stripe is enough
+		private final ThreadSafeHotelData localtshData = new ThreadSafeHotelData(1);
+		// Ids of the reviews added, by hotel id
+		private final Map<String, List<String>> reviewIds = new HashMap<String, List<String>>();
+
+		@Override
+		public void review(String hotelId, String reviewId, int rating, String reviewTitle,
+				String reviewText, boolean isRecom, String date, String username) {
+			if (hotelId == null) {
+				return;
+			}
+			//Add local review
+			if (localtshData.addReview(hotelId, reviewId, rating, reviewTitle, reviewText, isRecom, date, username)) {
+				List<String> ids = reviewIds.get(hotelId);
+				if (ids == null) {
+					ids = new ArrayList<String>();
+					reviewIds.put(hotelId, ids);
+				}
+				ids.add(reviewId);
+			}
+		}
+
+		void merge() {
+			//merge local reviews to global review, one hotel after another
+			for (String hotelId : reviewIds.keySet()) {
+				reviewTasks.execute(hotelId, new MergeReviewsWorker(hotelId, localtshData));
+			}
+		}
+	}
+
+	/**
+	 * Reads a batch of small review files, into one local data for all of them.
+	 */
 	private class LoadReviewsWorker implements Runnable {
-		private Path p;
-		private ThreadSafeHotelData localtshData;
-		LoadReviewsWorker(Path p) {
+		private final List<Path> paths;
+		LoadReviewsWorker(List<Path> paths) {
+			this.paths = paths;
+		}
+
+		@Override
+		public void run() {
+			LocalReviews reviews = new LocalReviews();
+			for (Path p : paths) {
+				long start = System.nanoTime();
+				int count = 0;
+				long bytes = 0L;
+				//Reviews are added while the file is read, no JSON tree is built
+				try (ReviewReader reader = newReviewReader(p)) {
+					count = reader.read(reviews);
+					bytes = reader.getOffset();
+				} catch (IOException e) {
+					System.out.println(p.toString());
+					e.printStackTrace();
+				}
+				reviewLoadStatistics.parsed(start, 1, count, bytes);
+			}
+			reviews.merge();
+		}
+	}
+
+	/**
+	 * Cuts the review array of a large file into ranges of about bytesPerTask
+	 * and queues a LoadRangeWorker for each, so the file is read in parallel.
+	 */
+	private class SplitReviewsWorker implements Runnable {
+		private final Path p;
+		private final long bytesPerRange;
+		SplitReviewsWorker(Path p, long bytesPerRange) {
 			this.p = p;
-			localtshData = new ThreadSafeHotelData();
-			incrementNumTasks();
+			this.bytesPerRange = bytesPerRange;
 		}
 
 		@Override
 		public void run() {
-			
-			JSONParser jsonParser = new JSONParser();
+			long start = System.nanoTime();
 			try {
-				JSONObject jsonObject = (JSONObject) jsonParser.parse(new FileReader(p.toAbsolutePath().toString()));
-				
-				//reviewDetails Object
-				JSONObject reviewDetails = (JSONObject) jsonObject.get("reviewDetails");
-				//reviewCollection Object
-				JSONObject reviewCollection = (JSONObject) reviewDetails.get("reviewCollection");
-				//review Array
-				JSONArray review = (JSONArray) reviewCollection.get("review");
-				JSONObject reviewObject;
-				for(int i=0; i<review.size();i++){
-					reviewObject = (JSONObject) review.get(i);
-					
-					String hotelId = (String) reviewObject.get("hotelId");
-					String reviewId = (String) reviewObject.get("reviewId");
-					long ratingLong = (long) reviewObject.get("ratingOverall");
-					int rating = (int) ratingLong;
-					String reviewTitle = (String) reviewObject.get("title");
-					String reviewText = (String) reviewObject.get("reviewText");
-					boolean isRecom = ("YES" == (String) reviewObject.get("isRecommended"));
-					String date = (String) reviewObject.get("reviewSubmissionTime");								
-					String username = (String) reviewObject.get("userNickname");
-					if(username.equals("")){ username = "anonymous"; }
-					//Add local review
-					localtshData.addReview(hotelId, reviewId, rating, reviewTitle, reviewText, isRecom, date, username);
-					//tshdata.addReview(hotelId, reviewId, rating, reviewTitle, reviewText, isRecom, date, username);
+				// The ranges are read in place, a stream cannot be shared
+				ByteBuffer bytes = memoryMapped ? JsonByteReader.map(p) : ByteBuffer.wrap(Files.readAllBytes(p));
+				long[] ranges = new ReviewReader(bytes.duplicate()).split(bytesPerRange);
+				for (int i = 0; i < ranges.length; i += 2) {
+					reviewTasks.execute(new LoadRangeWorker(p, bytes, ranges[i], ranges[i + 1]), WorkQueue.Priority.LOW);
 				}
-				//merge local reviews to global review
-				mergeReviews(localtshData);
-			
-			} catch (org.json.simple.parser.ParseException e) {
+			} catch (IOException e) {
 				System.out.println(p.toString());
 				e.printStackTrace();
-			} catch (FileNotFoundException e) {
+			}
+			// The reviews and bytes are counted by the ranges
+			reviewLoadStatistics.parsed(start, 1, 0, 0L);
+		}
+	}
+
+	/**
+	 * Reads one range of a large review file, see SplitReviewsWorker.
+	 */
+	private class LoadRangeWorker implements Runnable {
+		private final Path p;
+		private final ByteBuffer bytes;
+		private final long from;
+		private final long to;
+		LoadRangeWorker(Path p, ByteBuffer bytes, long from, long to) {
+			this.p = p;
+			this.bytes = bytes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			int count = 0;
+			LocalReviews reviews = new LocalReviews();
+			ByteBuffer range = bytes.duplicate();
+			range.limit((int) to);
+			range.position((int) from);
+			try {
+				count = new ReviewReader(range).readRange(reviews);
+				reviews.merge();
+			} catch (IOException e) {
+				System.out.println(p.toString() + " [" + from + ", " + to + ")");
+				e.printStackTrace();
+			}
+			reviewLoadStatistics.parsed(start, 0, count, to - from);
+		}
+	}
+
+	/**
+	 * Lists one directory of review files and plans the jobs that read them:
+	 * files smaller than bytesPerTask are batched until a batch reaches it,
+	 * larger ones get a job of their own, and files of twice the size or more
+	 * are split. Every subdirectory gets another ListDirectoryWorker.
+	 */
+	private class ListDirectoryWorker implements Runnable {
+		private final Path dir;
+		ListDirectoryWorker(Path dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			long target = bytesPerTask;
+			int files = 0;
+			List<Path> batch = new ArrayList<Path>();
+			long batchBytes = 0L;
+			try (DirectoryStream<Path> pathsList = Files.newDirectoryStream(dir)) {
+				for (Path p : pathsList) {
+					BasicFileAttributes attributes;
+					try {
+						// Type and size in one call to the file system
+						attributes = Files.readAttributes(p, BasicFileAttributes.class);
+					} catch (IOException e) {
+						System.out.println(p.toString());
+						e.printStackTrace();
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						// Listed by another job, maybe on another thread
+						reviewTasks.execute(new ListDirectoryWorker(p));
+						continue;
+					}
+					files++;
+					// LOW, so the listing jobs (NORMAL) keep running ahead of the parsing
+					if (attributes.size() >= 2 * target) {
+						reviewTasks.execute(new SplitReviewsWorker(p, target), WorkQueue.Priority.LOW);
+					} else if (attributes.size() >= target) {
+						reviewTasks.execute(new LoadReviewsWorker(Collections.singletonList(p)), WorkQueue.Priority.LOW);
+					} else {
+						batch.add(p);
+						batchBytes += attributes.size();
+						if (batchBytes >= target) {
+							reviewTasks.execute(new LoadReviewsWorker(batch), WorkQueue.Priority.LOW);
+							batch = new ArrayList<Path>();
+							batchBytes = 0L;
+						}
+					}
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				System.out.println(dir.toString());
 				e.printStackTrace();
+			}
+			if (!batch.isEmpty()) {
+				reviewTasks.execute(new LoadReviewsWorker(batch), WorkQueue.Priority.LOW);
+			}
+			reviewLoadStatistics.listed(start, files);
+		}
+	}
+
+	/**
+	 * Finds out what changed in a directory tree for reloadReviews.
+	 */
+	private class Scan {
+		// Files that are there, the files of the manifest that are not are gone
+		private final Set<Path> seen = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+		private final TaskGroup tasks = new TaskGroup(workQueue);
+		// A directory could not be listed, so files missing from seen may still be there
+		private volatile boolean failed;
+	}
+
+	/**
+	 * Lists one directory for reloadReviews: queues a ReloadFileWorker for every
+	 * file that is not in the manifest with its current size and time, and
+	 * another ScanDirectoryWorker for every subdirectory.
+	 */
+	private class ScanDirectoryWorker implements Runnable {
+		private final Scan scan;
+		private final Path dir;
+		ScanDirectoryWorker(Scan scan, Path dir) {
+			this.scan = scan;
+			this.dir = dir;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			int files = 0;
+			try (DirectoryStream<Path> pathsList = Files.newDirectoryStream(dir)) {
+				for (Path p : pathsList) {
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(p, BasicFileAttributes.class);
+					} catch (IOException e) {
+						System.out.println(p.toString());
+						e.printStackTrace();
+						scan.failed = true;
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						scan.tasks.execute(new ScanDirectoryWorker(scan, p));
+						continue;
+					}
+					files++;
+					scan.seen.add(p);
+					ReviewManifest.Entry entry = reviewManifest.get(p);
+					if (entry == null || !entry.isUnchanged(attributes)) {
+						reviewTasks.execute(p, new ReloadFileWorker(p));
+					}
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				System.out.println(dir.toString());
+				e.printStackTrace();
+				scan.failed = true;
+			}
+			reviewLoadStatistics.listed(start, files);
+		}
+	}
+
+	/**
+	 * Reads one review file again if it changed since it was loaded by
+	 * reloadReviews, and replaces the reviews of its old version by the new
+	 * ones; the reviews of a file that is gone are removed. Queued keyed by
+	 * the file, so reloads of the same file never overlap.
+	 */
+	private class ReloadFileWorker implements Runnable {
+		private final Path p;
+		ReloadFileWorker(Path p) {
+			this.p = p;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			ReviewManifest.Entry old = reviewManifest.get(p);
+			Map<String, List<String>> oldIds = old == null
+					? Collections.<String, List<String>>emptyMap() : old.getReviewIds();
+			BasicFileAttributes attributes;
+			byte[] bytes;
+			try {
+				// Before reading, so a change made meanwhile is seen by the next reload
+				attributes = Files.readAttributes(p, BasicFileAttributes.class);
+				if (attributes.isDirectory() || (old != null && old.isUnchanged(attributes))) {
+					return;
+				}
+				// Not mapped, a file truncated while it is mapped fails with an InternalError
+				bytes = Files.readAllBytes(p);
+			} catch (NoSuchFileException e) {
+				// Deleted, its reviews go with it
+				replace(oldIds, null);
+				reviewManifest.remove(p);
+				return;
 			} catch (IOException e) {
+				System.out.println(p.toString());
 				e.printStackTrace();
-			} finally {
-				decrementNumTask();
+				return;
+			}
+			CRC32 checksum = new CRC32();
+			checksum.update(bytes, 0, bytes.length);
+			if (old != null && old.getChecksum() == checksum.getValue()) {
+				// Only touched
+				reviewManifest.put(p, old.touched(attributes));
+				return;
+			}
+			LocalReviews reviews = new LocalReviews();
+			int count;
+			try {
+				count = new ReviewReader(ByteBuffer.wrap(bytes)).read(reviews);
+			} catch (IOException e) {
+				// Maybe still being written; the old reviews stay until it is read completely
+				System.out.println(p.toString());
+				e.printStackTrace();
+				return;
 			}
+			replace(oldIds, reviews);
+			reviewManifest.put(p, new ReviewManifest.Entry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+					checksum.getValue(), reviews.reviewIds));
+			reviewLoadStatistics.parsed(start, 1, count, bytes.length);
+		}
+
+		/**
+		 * Queues the replacement of the old reviews, one job per hotel of the
+		 * old or the new version.
+		 *
+		 * @param oldIds
+		 * @param reviews
+		 * 			- null if the file is gone
+		 */
+		private void replace(Map<String, List<String>> oldIds, LocalReviews reviews) {
+			Set<String> hotelIds = new HashSet<String>(oldIds.keySet());
+			ThreadSafeHotelData localtshData = null;
+			if (reviews != null) {
+				hotelIds.addAll(reviews.reviewIds.keySet());
+				localtshData = reviews.localtshData;
+			}
+			for (String hotelId : hotelIds) {
+				List<String> ids = oldIds.get(hotelId);
+				reviewTasks.execute(hotelId, new ReplaceReviewsWorker(hotelId,
+						ids == null ? Collections.<String>emptyList() : ids, localtshData));
+			}
+		}
+	}
+
+	/**
+	 * Replaces the reviews a file gave for one hotel, see ReloadFileWorker.
+	 */
+	private class ReplaceReviewsWorker implements Runnable {
+		private final String hotelId;
+		private final List<String> oldReviewIds;
+		private final ThreadSafeHotelData localtshData;
+		ReplaceReviewsWorker(String hotelId, List<String> oldReviewIds, ThreadSafeHotelData localtshData) {
+			this.hotelId = hotelId;
+			this.oldReviewIds = oldReviewIds;
+			this.localtshData = localtshData;
+		}
+
+		@Override
+		public void run() {
+			tshdata.replaceReviews(hotelId, oldReviewIds, localtshData);
+		}
+	}
+
+	/**
+	 * Turns the events of a WatchService into reloads, see watchReviews.
+	 */
+	private class ReviewWatcher implements Runnable {
+		private final Path root;
+		private final WatchService watchService;
+		// Directory of each key, events only tell the file name
+		private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<WatchKey, Path>();
+		private Thread thread;
+
+		ReviewWatcher(Path root) throws IOException {
+			this.root = root;
+			watchService = root.getFileSystem().newWatchService();
+		}
+
+		/**
+		 * Watches the directory and all directories under it.
+		 */
+		void register(Path dir) throws IOException {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attributes) throws IOException {
+					dirs.put(d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), d);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+
+		void start() {
+			thread = new Thread(this, "review-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Stops watching, after the reloads of the events taken so far are queued.
+		 */
+		void close() {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			while (true) {
+				try {
+					thread.join();
+					return;
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				WatchKey key;
+				try {
+					key = watchService.take();
+				} catch (InterruptedException | ClosedWatchServiceException e) {
+					return;
+				}
+				Path dir = dirs.get(key);
+				if (dir == null) {
+					// No longer valid
+					continue;
+				}
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Events were lost, compare the whole tree with the manifest
+						reloadReviews(root);
+						continue;
+					}
+					Path p = dir.resolve((Path) event.context());
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(p)) {
+						try {
+							register(p);
+						} catch (IOException e) {
+							System.out.println(p.toString());
+							e.printStackTrace();
+						}
+						// Files may have landed before it was watched
+						reloadReviews(p);
+					} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && reviewManifest.get(p) == null) {
+						// Maybe a directory, its files are gone too
+						for (Path file : reviewManifest.getFiles()) {
+							if (file.startsWith(p)) {
+								reviewTasks.execute(file, new ReloadFileWorker(file));
+							}
+						}
+					} else {
+						reviewTasks.execute(p, new ReloadFileWorker(p));
+					}
+				}
+				if (!key.reset()) {
+					dirs.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the reviews one job has read for one hotel.
+	 */
+	private class MergeReviewsWorker implements Runnable {
+		private final String hotelId;
+		private final ThreadSafeHotelData localtshData;
+		MergeReviewsWorker(String hotelId, ThreadSafeHotelData localtshData) {
+			this.hotelId = hotelId;
+			this.localtshData = localtshData;
+		}
+
+		@Override
+		public void run() {
+			tshdata.mergeReviews(hotelId, localtshData);
 		}
 	}
 
 	/**
 	 * Load reviews for all the hotels into the appropriate data structure(s).
 	 * Traverse a given directory recursively to find all the json files with
-	 * reviews and load reviews from each json. Note: this method must be
-	 * recursive and use DirectoryStream as discussed in class.
+	 * reviews and load reviews from each json. Every directory is listed by a
+	 * job of its own, using DirectoryStream, and the files are parsed while the
+	 * traversal goes on. Returns without waiting, see waitUntilReviewsLoaded.
 	 * 
 	 * @param path
 	 *            the path to the directory that contains json files with
@@ -173,78 +693,186 @@ public class HotelDataBuilder {
 	 *            well as subfolders (of subfolders etc..) with more json files
 	 */
 	public void loadReviews(Path path) {
-		// FILL IN CODE
-		try {
-			DirectoryStream<Path> pathsList = Files.newDirectoryStream(path);
-			for(Path p : pathsList){
-				// check that file is directory or not.
-				if(!Files.isDirectory(p)){
-					//send to Threads
-					workQueue.execute(new LoadReviewsWorker(p));
-				} else if (Files.isDirectory(p)) {
-					// If it is, check the subfolders.
-					// this method get the paremeter path, and in it, check sub directories.
-					loadReviews(p);
-				}
+		reviewTasks.execute(new ListDirectoryWorker(path));
+	}
+
+	/**
+	 * Incremental loadReviews: reads only the review files under the directory
+	 * that are new or changed since reloadReviews last read them, see
+	 * getReviewManifest(). The reviews of a changed file replace those of its
+	 * old version, and the reviews of a file that is gone are removed. The
+	 * first reload of a directory reads every file, one job per file.
+	 * 
+	 * Returns once the directory tree is listed, the files are read meanwhile
+	 * and afterwards, see waitUntilReviewsLoaded. Must not be called from a job
+	 * of the parse pool, it waits for the listing jobs.
+	 * 
+	 * @param path
+	 *            the directory with the review files, like for loadReviews
+	 */
+	public void reloadReviews(Path path) {
+		Path root = path.toAbsolutePath().normalize();
+		Scan scan = new Scan();
+		scan.tasks.execute(new ScanDirectoryWorker(scan, root));
+		awaitGroup(scan.tasks);
+		if (scan.failed) {
+			// Files that were not seen may still be there
+			return;
+		}
+		for (Path p : reviewManifest.getFiles()) {
+			if (p.startsWith(root) && !scan.seen.contains(p)) {
+				reviewTasks.execute(p, new ReloadFileWorker(p));
 			}
+		}
+	}
+
+	/**
+	 * Keeps a directory of reviews loaded: reloads it now, then reloads the
+	 * files that are created, changed or deleted under it as the file system
+	 * reports them, until stopWatching() or shutdown(). Files should be moved
+	 * into the directory once they are complete; a file that is read while it
+	 * is still being written keeps its old reviews until it is read again.
+	 * 
+	 * @param path
+	 * 			- the directory with the review files
+	 * @throws IOException
+	 * 			- if the directory cannot be watched
+	 * @throws IllegalStateException
+	 * 			- if a directory is watched already
+	 */
+	public synchronized void watchReviews(Path path) throws IOException {
+		if (reviewWatcher != null) {
+			throw new IllegalStateException("Already watching " + reviewWatcher.root);
+		}
+		Path root = path.toAbsolutePath().normalize();
+		ReviewWatcher watcher = new ReviewWatcher(root);
+		// Watched before the reload, so no file can land unnoticed in between
+		try {
+			watcher.register(root);
 		} catch (IOException e) {
-			e.printStackTrace();
+			watcher.watchService.close();
+			throw e;
+		}
+		reloadReviews(root);
+		watcher.start();
+		reviewWatcher = watcher;
+	}
+
+	/**
+	 * Stops the watching started by watchReviews, reloads that are queued
+	 * already still run.
+	 */
+	public synchronized void stopWatching() {
+		if (reviewWatcher != null) {
+			reviewWatcher.close();
+			reviewWatcher = null;
 		}
 	}
 
+	/**
+	 * 
+	 * @return the files loaded by reloadReviews and watchReviews
+	 */
+	public ReviewManifest getReviewManifest() {
+		return reviewManifest;
+	}
+
+	/**
+	 * 
+	 * @return throughput of discovering and of parsing review files, over all
+	 * 			loadReviews calls so far
+	 */
+	public ReviewLoadStatistics getReviewLoadStatistics() {
+		return reviewLoadStatistics;
+	}
+
 	/**
 	 * 
 	 * @param localtshData
 	 * 			- merge local reviews to global review
 	 */
-	public synchronized void mergeReviews(ThreadSafeHotelData localtshData) {
+	public void mergeReviews(ThreadSafeHotelData localtshData) {
 		tshdata.mergeReviews(localtshData);
 	}
 
 	/**
 	 *  Wait for all pending work to finish
 	 */
-	public synchronized void waitUntilFinished() {
-		while(numTasks > 0) {
-			try {
-				wait();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+	public void waitUntilFinished() {
+		waitUntilReviewsLoaded();
+		waitUntilAttractionsFetched();
 	}
-	
+
 	/**
-	 * increment number of task in synchronised way
+	 *  Wait until the review files given to loadReviews are loaded
 	 */
-	public synchronized void incrementNumTasks() {
-		numTasks++;
+	public void waitUntilReviewsLoaded() {
+		awaitGroup(reviewTasks);
 	}
 
 	/**
-	 * decrement number of task in synchronised way
+	 *  Wait until the attractions requested by fetchAttractions are fetched
 	 */
-	public synchronized void decrementNumTask() {
-		numTasks--;
-		if(numTasks <= 0){
-			notifyAll();
+	public void waitUntilAttractionsFetched() {
+		awaitGroup(attractionTasks);
+	}
+
+	/**
+	 * 
+	 * @param group
+	 * 			- jobs to wait for, interrupts do not stop the wait
+	 */
+	private static void awaitGroup(TaskGroup group) {
+		while (true) {
+			try {
+				group.await();
+				return;
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
 	/**
 	 * Wait until there is no pending work, then shutdown the queue
 	 */
-	public synchronized void shutdown(){
+	public void shutdown(){
+		stopWatching();
 		waitUntilFinished();
 		workQueue.shutdown();
+		fetchQueue.shutdown();
 	}
 	
 	/**
 	 * 
 	 * @return numTasks - For testing, it is created.
 	 */
-	public synchronized int getNumTasks() {
-		return numTasks;
+	public int getNumTasks() {
+		return reviewTasks.getPending() + attractionTasks.getPending();
+	}
+
+	/**
+	 * 
+	 * @return the pools by name, PARSE_POOL and FETCH_POOL; their toString()
+	 * 			reports size and job counts
+	 */
+	public Map<String, WorkQueue> getPools() {
+		return pools;
+	}
+
+	/**
+	 * 
+	 * @param pool
+	 * 			- PARSE_POOL or FETCH_POOL
+	 * @return number of jobs of the pool that are not done yet
+	 */
+	public int getNumTasks(String pool) {
+		if (PARSE_POOL.equals(pool)) {
+			return reviewTasks.getPending();
+		} else if (FETCH_POOL.equals(pool)) {
+			return attractionTasks.getPending();
+		}
+		throw new IllegalArgumentException("Unknown pool: " + pool);
 	}
 
 	/**
@@ -291,13 +919,12 @@ public class HotelDataBuilder {
 			this.radiusInMiles = radiusInMiles;
 			this.hotelId = hotelId;
 			this.hotelLocationInfo = hotelLocationInfo;
-			localtshData = new ThreadSafeHotelData();
-			incrementNumTasks();
 		}
 		
 		@Override
 		public void run() {
 			// TODO Auto-generated method stub
+			localtshData = new ThreadSafeHotelData(1);
 			
 			sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
 			try {
@@ -364,8 +991,6 @@ public class HotelDataBuilder {
 					sslSocket.close();
 				} catch (IOException e) {
 					e.printStackTrace();
-				} finally {
-					decrementNumTask();
 				}
 			}
 		}
@@ -382,9 +1007,28 @@ public class HotelDataBuilder {
 		
 		hotelLocationInfo = tshdata.generateQueries();
 		for(String hotelId : hotelLocationInfo.keySet()){
-			workQueue.execute(new FetchAttractionsWorker(hotelId, hotelLocationInfo.get(hotelId) ,radiusInMiles));
+			attractionTasks.execute(new FetchAttractionsWorker(hotelId, hotelLocationInfo.get(hotelId) ,radiusInMiles),
+					WorkQueue.Priority.LOW);
 		}
 	}
+
+	/** Fetches the attractions of one hotel again, ahead of the jobs
+	 * queued by fetchAttractions.
+	 * 
+	 * @param hotelId
+	 * @param radiusInMiles
+	 * 				- near distance amount
+	 * @return false if the hotel does not exist
+	 */
+	public boolean refreshAttractions(String hotelId, int radiusInMiles){
+		String hotelLocationInfo = tshdata.generateQuery(hotelId);
+		if (hotelLocationInfo == null) {
+			return false;
+		}
+		attractionTasks.execute(new FetchAttractionsWorker(hotelId, hotelLocationInfo, radiusInMiles),
+				WorkQueue.Priority.HIGH);
+		return true;
+	}
 	
 	/**
 	 * 
@@ -418,6 +1062,9 @@ public class HotelDataBuilder {
 		hotelDataBuilder.loadHotelInfo("input/hotels4.json");
 		hotelDataBuilder.fetchAttractions(20);
 		hotelDataBuilder.print(Paths.get("outputFile"));
+		for (WorkQueue pool : hotelDataBuilder.getPools().values()) {
+			System.out.println(pool);
+		}
 		hotelDataBuilder.shutdown();
 	}
 	
@@ -0,0 +1,127 @@
+package cs601.hotelapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the hotels of a hotel file (the "sr" array) token by token, see
+ * ReviewReader. Hotels without an id or coordinates are skipped.
+ */
+public class HotelReader extends JsonByteReader {
+
+	/**
+	 * Receives the hotels in the order of the file.
+	 */
+	public interface Handler {
+		void hotel(String hotelId, String hotelName, String city, String state, String streetAddress,
+				double lat, double lon);
+	}
+
+	/**
+	 * Constructor for HotelReader.
+	 *
+	 * @param in
+	 * 			- the JSON text in UTF-8, read from the start; no need to buffer it
+	 */
+	public HotelReader(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Constructor for HotelReader.
+	 *
+	 * @param bytes
+	 * 			- the whole JSON text in UTF-8, e.g. a file mapped with map()
+	 */
+	public HotelReader(ByteBuffer bytes) {
+		super(bytes);
+	}
+
+	/**
+	 * Reads the hotels and hands them to the handler.
+	 *
+	 * @param handler
+	 * @return number of hotels read, 0 if the file has no hotel array
+	 * @throws IOException
+	 * 			- if reading fails or the JSON is malformed
+	 */
+	public int read(Handler handler) throws IOException {
+		skipByteOrderMark();
+		if (!enterObject() || !findKey("sr") || !enterArray()) {
+			return 0;
+		}
+		int count = 0;
+		do {
+			if (readHotel(handler)) {
+				count++;
+			}
+		} while (nextElement());
+		return count;
+	}
+
+	/**
+	 * Parses one hotel object and passes it on.
+	 *
+	 * @return false if it was skipped
+	 */
+	private boolean readHotel(Handler handler) throws IOException {
+		if (!isObjectNext()) {
+			skipValue();
+			return false;
+		}
+		enterObject();
+		String hotelId = null;
+		String hotelName = null;
+		String city = null;
+		String state = null;
+		String streetAddress = null;
+		String lat = null;
+		String lon = null;
+		if (!isEmptyObject()) {
+			do {
+				readKey();
+				if (is("id")) {
+					hotelId = readStringValue();
+				} else if (is("f")) {
+					hotelName = readStringValue();
+				} else if (is("ci")) {
+					city = readStringValue();
+				} else if (is("pr")) {
+					state = readStringValue();
+				} else if (is("ad")) {
+					streetAddress = readStringValue();
+				} else if (is("ll") && isObjectNext()) {
+					enterObject();
+					if (!isEmptyObject()) {
+						do {
+							readKey();
+							if (is("lat")) {
+								lat = readStringValue();
+							} else if (is("lng")) {
+								lon = readStringValue();
+							} else {
+								skipValue();
+							}
+						} while (nextMember());
+					}
+				} else {
+					skipValue();
+				}
+			} while (nextMember());
+		}
+		if (hotelId == null || lat == null || lon == null) {
+			return false;
+		}
+		double hotelLat;
+		double hotelLon;
+		try {
+			hotelLat = Double.parseDouble(lat);
+			hotelLon = Double.parseDouble(lon);
+		} catch (NumberFormatException e) {
+			throw error("malformed coordinates of hotel " + hotelId);
+		}
+		handler.hotel(hotelId, hotelName, city, state, streetAddress, hotelLat, hotelLon);
+		return true;
+	}
+}
@@ -0,0 +1,593 @@
+package cs601.hotelapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Token level reading of UTF-8 encoded JSON, the base of the streaming
+ * readers of the data files. The bytes are parsed as they are, without
+ * decoding them into chars first: the structure of JSON is ASCII, keys are
+ * compared byte by byte, and only the string values a reader keeps are
+ * decoded into Strings.
+ *
+ * The input is either a stream, read through a small buffer, or a ByteBuffer
+ * holding the whole text, e.g. a file mapped with map(), which is parsed in
+ * place without copying it at all.
+ *
+ * Malformed input ends reading with an IOException that tells the offset.
+ */
+abstract class JsonByteReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	// Null if the whole input is in buffer
+	private final InputStream in;
+	private final ByteBuffer buffer;
+	// The array behind buffer, null for a mapped file
+	private final byte[] array;
+	// Second view of buffer for bulk copies, Java 8 has no absolute bulk get
+	private final ByteBuffer view;
+	private int pos;
+	private int limit;
+	// Bytes before buffer[0]
+	private long consumed;
+	// The last string or key read, as UTF-8; reused by every string
+	private byte[] scratch;
+	private int scratchLength;
+	// High surrogate of a \\u escape, waiting for its low half
+	private int pendingHigh;
+
+	/**
+	 * @param in
+	 * 			- the JSON text, read from the start; no need to buffer it
+	 */
+	JsonByteReader(InputStream in) {
+		this.in = in;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		array = buffer.array();
+		view = buffer.duplicate();
+		scratch = new byte[256];
+	}
+
+	/**
+	 * @param bytes
+	 * 			- the whole JSON text, from its position to its limit
+	 */
+	JsonByteReader(ByteBuffer bytes) {
+		in = null;
+		buffer = bytes;
+		pos = bytes.position();
+		limit = bytes.limit();
+		array = bytes.hasArray() && bytes.arrayOffset() == 0 ? bytes.array() : null;
+		view = bytes.duplicate();
+		scratch = new byte[256];
+	}
+
+	/**
+	 * Maps a file into memory, read only. The mapping is released when the
+	 * buffer is garbage collected, closing the file does not end it.
+	 *
+	 * @param file
+	 * @return the bytes of the file
+	 * @throws IOException
+	 * 			- also if the file is too large to be mapped at once (2 GB)
+	 */
+	static ByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Too large to be mapped: " + file);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+	}
+
+	/**
+	 * Skips a UTF-8 byte order mark at the start of the input.
+	 */
+	void skipByteOrderMark() throws IOException {
+		if (current() == 0xEF) {
+			pos++;
+			if (next() != 0xBB || next() != 0xBF) {
+				throw error("malformed byte order mark");
+			}
+		}
+	}
+
+	/**
+	 * Steps into the object that comes next.
+	 *
+	 * @return false if the next value is not an object; it is skipped
+	 */
+	boolean enterObject() throws IOException {
+		if (peek() != '{') {
+			skipValue();
+			return false;
+		}
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Skips the members of the current object until the given key.
+	 *
+	 * @param name
+	 * @return true if found, positioned at its value; false if the object ended
+	 */
+	boolean findKey(String name) throws IOException {
+		if (peek() == '}') {
+			pos++;
+			return false;
+		}
+		while (true) {
+			readKey();
+			if (is(name)) {
+				return true;
+			}
+			skipValue();
+			if (!nextMember()) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Steps into the array that comes next.
+	 *
+	 * @return false if the next value is not an array or the array is empty; it is skipped
+	 */
+	boolean enterArray() throws IOException {
+		if (peek() != '[') {
+			skipValue();
+			return false;
+		}
+		pos++;
+		if (peek() == ']') {
+			pos++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the separator after an element of an array.
+	 *
+	 * @return true if another element follows, false if the array ended
+	 */
+	boolean nextElement() throws IOException {
+		int c = peek();
+		if (c == ']') {
+			pos++;
+			return false;
+		}
+		if (c != ',') {
+			throw error("',' or ']' expected");
+		}
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Reads the separator after an element of a range of array elements, input
+	 * that starts at an element and ends after another one.
+	 *
+	 * @return true if another element follows, false at the end of input
+	 */
+	boolean nextInRange() throws IOException {
+		int c = peek();
+		if (c == -1) {
+			return false;
+		}
+		if (c != ',') {
+			throw error("',' or end of range expected");
+		}
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Reads the separator after a member of an object.
+	 *
+	 * @return true if another member follows, false if the object ended
+	 */
+	boolean nextMember() throws IOException {
+		int c = peek();
+		if (c == '}') {
+			pos++;
+			return false;
+		}
+		if (c != ',') {
+			throw error("',' or '}' expected");
+		}
+		pos++;
+		return true;
+	}
+
+	/**
+	 * @return true if the object that was just entered has no members; they are consumed
+	 */
+	boolean isEmptyObject() throws IOException {
+		if (peek() == '}') {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a key and the colon after it, see is().
+	 */
+	void readKey() throws IOException {
+		if (peek() != '"') {
+			throw error("key expected");
+		}
+		pos++;
+		readString();
+		if (peek() != ':') {
+			throw error("':' expected");
+		}
+		pos++;
+	}
+
+	/**
+	 * @param name
+	 * 			- ASCII only
+	 * @return true if the last key or string read is the name, compared without making a String
+	 */
+	boolean is(String name) {
+		if (scratchLength != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < scratchLength; i++) {
+			if (scratch[i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next value if it is an object, so the caller can enter it
+	 */
+	boolean isObjectNext() throws IOException {
+		return peek() == '{';
+	}
+
+	/**
+	 * @return the string that comes next, or null if the value is not a string; it is skipped
+	 */
+	String readStringValue() throws IOException {
+		if (peek() != '"') {
+			skipValue();
+			return null;
+		}
+		pos++;
+		readString();
+		return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the number that comes next without its fraction, 0 if the value is not a number
+	 */
+	long readLongValue() throws IOException {
+		int c = peek();
+		if (c != '-' && (c < '0' || c > '9')) {
+			skipValue();
+			return 0L;
+		}
+		boolean negative = c == '-';
+		if (negative) {
+			pos++;
+		}
+		long value = 0L;
+		while ((c = current()) >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			pos++;
+		}
+		// Fraction and exponent, like (long) of a double; rare in the data files
+		if (c == '.' || c == 'e' || c == 'E') {
+			StringBuilder sb = new StringBuilder();
+			sb.append(negative ? "-" : "").append(value);
+			while ((c = current()) == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' || (c >= '0' && c <= '9')) {
+				sb.append((char) c);
+				pos++;
+			}
+			try {
+				return (long) Double.parseDouble(sb.toString());
+			} catch (NumberFormatException e) {
+				throw error("malformed number");
+			}
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return true if the value that comes next is the string "YES" or true
+	 */
+	boolean readYesValue() throws IOException {
+		int c = peek();
+		if (c == '"') {
+			pos++;
+			readString();
+			return is("YES");
+		}
+		skipValue();
+		return c == 't';
+	}
+
+	/**
+	 * Skips the value that comes next, of any type, without keeping any of it.
+	 */
+	void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			int c = peek();
+			if (c == -1) {
+				throw error("unexpected end of input");
+			}
+			pos++;
+			switch (c) {
+			case '{':
+			case '[':
+				depth++;
+				break;
+			case '}':
+			case ']':
+				depth--;
+				break;
+			case ',':
+			case ':':
+				if (depth == 0) {
+					throw error("value expected");
+				}
+				break;
+			case '"':
+				skipString();
+				break;
+			default:
+				// Number or literal, up to the next delimiter
+				while ((c = current()) != -1 && c != ',' && c != '}' && c != ']' && c != ':' && c > ' ') {
+					pos++;
+				}
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Reads the rest of a string after its opening quote into scratch as
+	 * UTF-8, resolving escapes.
+	 */
+	private void readString() throws IOException {
+		scratchLength = 0;
+		pendingHigh = 0;
+		while (true) {
+			if (pos == limit && !fill()) {
+				throw error("unterminated string");
+			}
+			// Copy the plain run at once
+			int start = pos;
+			while (pos < limit) {
+				byte b = byteAt(pos);
+				if (b == '"' || b == '\\') {
+					break;
+				}
+				pos++;
+			}
+			if (pos > start) {
+				flushPendingHigh();
+				ensureScratch(pos - start);
+				view.limit(pos).position(start);
+				view.get(scratch, scratchLength, pos - start);
+				scratchLength += pos - start;
+			}
+			if (pos == limit) {
+				continue;
+			}
+			if (byteAt(pos++) == '"') {
+				flushPendingHigh();
+				return;
+			}
+			readEscape();
+		}
+	}
+
+	/**
+	 * Appends the char of the escape sequence after a backslash to scratch.
+	 */
+	private void readEscape() throws IOException {
+		int c = next();
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			appendChar(c);
+			return;
+		case 'b':
+			appendChar('\b');
+			return;
+		case 'f':
+			appendChar('\f');
+			return;
+		case 'n':
+			appendChar('\n');
+			return;
+		case 'r':
+			appendChar('\r');
+			return;
+		case 't':
+			appendChar('\t');
+			return;
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(next(), 16);
+				if (digit < 0) {
+					throw error("malformed unicode escape");
+				}
+				value = (value << 4) | digit;
+			}
+			if (Character.isLowSurrogate((char) value) && pendingHigh != 0) {
+				appendCodePoint(Character.toCodePoint((char) pendingHigh, (char) value));
+				pendingHigh = 0;
+			} else if (Character.isHighSurrogate((char) value)) {
+				flushPendingHigh();
+				pendingHigh = value;
+			} else {
+				appendChar(value);
+			}
+			return;
+		default:
+			throw error("malformed escape");
+		}
+	}
+
+	private void appendChar(int c) {
+		flushPendingHigh();
+		appendCodePoint(c);
+	}
+
+	/**
+	 * A high surrogate without its low half, encoded on its own; it decodes
+	 * as a replacement char.
+	 */
+	private void flushPendingHigh() {
+		if (pendingHigh != 0) {
+			appendCodePoint(pendingHigh);
+			pendingHigh = 0;
+		}
+	}
+
+	/**
+	 * Appends a code point to scratch, encoded as UTF-8.
+	 */
+	private void appendCodePoint(int cp) {
+		ensureScratch(4);
+		if (cp < 0x80) {
+			scratch[scratchLength++] = (byte) cp;
+		} else if (cp < 0x800) {
+			scratch[scratchLength++] = (byte) (0xC0 | (cp >> 6));
+			scratch[scratchLength++] = (byte) (0x80 | (cp & 0x3F));
+		} else if (cp < 0x10000) {
+			scratch[scratchLength++] = (byte) (0xE0 | (cp >> 12));
+			scratch[scratchLength++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			scratch[scratchLength++] = (byte) (0x80 | (cp & 0x3F));
+		} else {
+			scratch[scratchLength++] = (byte) (0xF0 | (cp >> 18));
+			scratch[scratchLength++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			scratch[scratchLength++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			scratch[scratchLength++] = (byte) (0x80 | (cp & 0x3F));
+		}
+	}
+
+	private void ensureScratch(int more) {
+		if (scratchLength + more > scratch.length) {
+			byte[] larger = new byte[Math.max(scratch.length * 2, scratchLength + more)];
+			System.arraycopy(scratch, 0, larger, 0, scratchLength);
+			scratch = larger;
+		}
+	}
+
+	/**
+	 * Skips the rest of a string after its opening quote.
+	 */
+	private void skipString() throws IOException {
+		while (true) {
+			int c = next();
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\') {
+				next();
+			} else if (c == -1) {
+				throw error("unterminated string");
+			}
+		}
+	}
+
+	/**
+	 * @return the next byte that is not whitespace, without consuming it; -1 at the end
+	 */
+	int peek() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				return -1;
+			}
+			int c = byteAt(pos) & 0xFF;
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+			pos++;
+		}
+	}
+
+	/**
+	 * @return the next byte without consuming it, -1 at the end
+	 */
+	private int current() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return byteAt(pos) & 0xFF;
+	}
+
+	/**
+	 * @return the next byte, -1 at the end
+	 */
+	private int next() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return byteAt(pos++) & 0xFF;
+	}
+
+	private byte byteAt(int i) {
+		return array != null ? array[i] : buffer.get(i);
+	}
+
+	/**
+	 * Reads the next chunk of a stream into the buffer, which has been used up.
+	 *
+	 * @return false at the end of input
+	 */
+	private boolean fill() throws IOException {
+		if (in == null) {
+			return false;
+		}
+		consumed += limit;
+		pos = 0;
+		limit = 0;
+		int n;
+		do {
+			n = in.read(array, 0, array.length);
+		} while (n == 0);
+		if (n < 0) {
+			return false;
+		}
+		limit = n;
+		return true;
+	}
+
+	/**
+	 * @return offset of the next byte to parse, i.e. the bytes parsed so far
+	 */
+	long getOffset() {
+		return consumed + pos;
+	}
+
+	IOException error(String message) {
+		return new IOException("Malformed JSON at offset " + (consumed + pos) + ": " + message);
+	}
+}
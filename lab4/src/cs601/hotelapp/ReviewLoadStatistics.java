@@ -0,0 +1,181 @@
+package cs601.hotelapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of HotelDataBuilder.loadReviews, with the two stages counted
+ * separately: discovery lists the directories, parsing reads the review
+ * files. Both stages run at the same time, so each one is timed from its
+ * first job starting to its last job finishing; busy time adds up the time
+ * the jobs of a stage took on all threads.
+ *
+ * The values add up over all loadReviews calls of a builder.
+ */
+public class ReviewLoadStatistics {
+
+	// Not set yet, System.nanoTime() can be any value
+	private static final long UNSET = Long.MIN_VALUE;
+
+	private final LongAdder directories = new LongAdder();
+	private final LongAdder filesFound = new LongAdder();
+	private final LongAdder discoveryBusyNanos = new LongAdder();
+	private final AtomicLong discoveryStart = new AtomicLong(UNSET);
+	private final AtomicLong discoveryEnd = new AtomicLong(UNSET);
+
+	private final LongAdder filesParsed = new LongAdder();
+	private final LongAdder reviews = new LongAdder();
+	private final LongAdder bytesParsed = new LongAdder();
+	private final LongAdder parseBusyNanos = new LongAdder();
+	private final AtomicLong parseStart = new AtomicLong(UNSET);
+	private final AtomicLong parseEnd = new AtomicLong(UNSET);
+
+	ReviewLoadStatistics() {
+	}
+
+	/**
+	 * A directory was listed.
+	 *
+	 * @param start
+	 * 			- System.nanoTime() before opening it
+	 * @param files
+	 * 			- files found in it, not counting subdirectories
+	 */
+	void listed(long start, int files) {
+		long end = System.nanoTime();
+		directories.increment();
+		filesFound.add(files);
+		discoveryBusyNanos.add(end - start);
+		first(discoveryStart, start);
+		last(discoveryEnd, end);
+	}
+
+	/**
+	 * A parsing job is done with a review file or with a part of one.
+	 *
+	 * @param start
+	 * 			- System.nanoTime() before opening it
+	 * @param files
+	 * 			- 1 for a file, 0 for a part of one, whose file is counted once
+	 * @param fileReviews
+	 * @param bytes
+	 * 			- bytes parsed
+	 */
+	void parsed(long start, int files, int fileReviews, long bytes) {
+		long end = System.nanoTime();
+		filesParsed.add(files);
+		reviews.add(fileReviews);
+		bytesParsed.add(bytes);
+		parseBusyNanos.add(end - start);
+		first(parseStart, start);
+		last(parseEnd, end);
+	}
+
+	private static void first(AtomicLong time, long nanos) {
+		long current;
+		while ((current = time.get()) == UNSET || nanos - current < 0) {
+			if (time.compareAndSet(current, nanos)) {
+				return;
+			}
+		}
+	}
+
+	private static void last(AtomicLong time, long nanos) {
+		long current;
+		while ((current = time.get()) == UNSET || nanos - current > 0) {
+			if (time.compareAndSet(current, nanos)) {
+				return;
+			}
+		}
+	}
+
+	private static long elapsed(AtomicLong start, AtomicLong end) {
+		long from = start.get();
+		long to = end.get();
+		return from == UNSET || to == UNSET ? 0L : to - from;
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos <= 0 ? 0.0 : count * 1e9 / nanos;
+	}
+
+	/**
+	 * @return number of directories listed
+	 */
+	public long getDirectories() {
+		return directories.sum();
+	}
+
+	/**
+	 * @return number of review files found
+	 */
+	public long getFilesFound() {
+		return filesFound.sum();
+	}
+
+	/**
+	 * @return nanoseconds from the first listing starting to the last one finishing
+	 */
+	public long getDiscoveryNanos() {
+		return elapsed(discoveryStart, discoveryEnd);
+	}
+
+	/**
+	 * @return review files found per second of discovery
+	 */
+	public double getDiscoveryFilesPerSecond() {
+		return perSecond(getFilesFound(), getDiscoveryNanos());
+	}
+
+	/**
+	 * @return number of review files parsed, also those that failed
+	 */
+	public long getFilesParsed() {
+		return filesParsed.sum();
+	}
+
+	/**
+	 * @return number of reviews read
+	 */
+	public long getReviews() {
+		return reviews.sum();
+	}
+
+	/**
+	 * @return number of bytes parsed
+	 */
+	public long getBytesParsed() {
+		return bytesParsed.sum();
+	}
+
+	/**
+	 * @return nanoseconds from the first file starting to the last one finishing
+	 */
+	public long getParseNanos() {
+		return elapsed(parseStart, parseEnd);
+	}
+
+	/**
+	 * @return review files parsed per second of parsing
+	 */
+	public double getParseFilesPerSecond() {
+		return perSecond(getFilesParsed(), getParseNanos());
+	}
+
+	/**
+	 * @return reviews read per second of parsing
+	 */
+	public double getParseReviewsPerSecond() {
+		return perSecond(getReviews(), getParseNanos());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("discovery: %d directories, %d files in %.1f ms (%.0f files/s, %.1f ms busy); "
+				+ "parse: %d files, %d reviews, %.1f MB in %.1f ms (%.0f files/s, %.0f reviews/s, %.1f MB/s, %.1f ms busy)",
+				getDirectories(), getFilesFound(), getDiscoveryNanos() / 1e6, getDiscoveryFilesPerSecond(),
+				discoveryBusyNanos.sum() / 1e6, getFilesParsed(), getReviews(), getBytesParsed() / 1e6,
+				getParseNanos() / 1e6, getParseFilesPerSecond(), getParseReviewsPerSecond(),
+				perSecond(getBytesParsed(), getParseNanos()) / 1e6, parseBusyNanos.sum() / 1e6);
+	}
+}
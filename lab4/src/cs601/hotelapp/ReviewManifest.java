@@ -0,0 +1,122 @@
+package cs601.hotelapp;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What HotelDataBuilder.reloadReviews has loaded, by review file: the size,
+ * modification time and checksum of the file as it was read, and the ids of
+ * the reviews it gave. A file whose size and time are unchanged is not read
+ * again; one that was only touched is read, but its checksum shows that it
+ * need not be parsed. The review ids are what a new version of the file
+ * replaces.
+ *
+ * Kept in memory like the reviews it describes. Files are absolute,
+ * normalized paths.
+ */
+public class ReviewManifest {
+
+	/**
+	 * One loaded file, never changed once made.
+	 */
+	public static final class Entry {
+		private final long size;
+		private final long lastModified;
+		private final long checksum;
+		// Ids of the reviews the file gave, by hotel id
+		private final Map<String, List<String>> reviewIds;
+
+		Entry(long size, long lastModified, long checksum, Map<String, List<String>> reviewIds) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+			this.reviewIds = Collections.unmodifiableMap(reviewIds);
+		}
+
+		/**
+		 * @param attributes
+		 * @return true if the file still has the size and time it was read with
+		 */
+		boolean isUnchanged(BasicFileAttributes attributes) {
+			return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+		}
+
+		/**
+		 * @param attributes
+		 * @return the same entry with the current time of the file, which was
+		 * 			touched but not changed
+		 */
+		Entry touched(BasicFileAttributes attributes) {
+			return new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), checksum, reviewIds);
+		}
+
+		Map<String, List<String>> getReviewIds() {
+			return reviewIds;
+		}
+
+		/**
+		 * @return size of the file in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return modification time of the file, in milliseconds since the epoch
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return CRC-32 of the file
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+
+		/**
+		 * @return number of reviews loaded from the file
+		 */
+		public int getReviews() {
+			int reviews = 0;
+			for (List<String> ids : reviewIds.values()) {
+				reviews += ids.size();
+			}
+			return reviews;
+		}
+	}
+
+	private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<Path, Entry>();
+
+	ReviewManifest() {
+	}
+
+	/**
+	 * @param file
+	 * @return the entry of the file, null if it has not been loaded
+	 */
+	public Entry get(Path file) {
+		return entries.get(file);
+	}
+
+	void put(Path file, Entry entry) {
+		entries.put(file, entry);
+	}
+
+	void remove(Path file) {
+		entries.remove(file);
+	}
+
+	/**
+	 * @return the loaded files
+	 */
+	public Set<Path> getFiles() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+}
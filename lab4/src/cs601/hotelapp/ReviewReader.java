@@ -0,0 +1,192 @@
+package cs601.hotelapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the reviews of a review file (reviewDetails.reviewCollection.review)
+ * token by token, without building a JSON tree first. Every review is handed
+ * to the Handler as soon as its object is parsed, fields that are not used
+ * are skipped without creating strings, and keys are compared in place, so
+ * the only objects made per review are the field values that are kept.
+ *
+ * The file is parsed as UTF-8 bytes, from a stream or from a mapped file,
+ * see JsonByteReader.
+ */
+public class ReviewReader extends JsonByteReader {
+
+	/**
+	 * Receives the reviews in the order of the file.
+	 */
+	public interface Handler {
+		void review(String hotelId, String reviewId, int rating, String reviewTitle, String reviewText,
+				boolean isRecom, String date, String username);
+	}
+
+	/**
+	 * Constructor for ReviewReader.
+	 *
+	 * @param in
+	 * 			- the JSON text in UTF-8, read from the start; no need to buffer it
+	 */
+	public ReviewReader(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Constructor for ReviewReader.
+	 *
+	 * @param bytes
+	 * 			- the whole JSON text in UTF-8, e.g. a file mapped with map()
+	 */
+	public ReviewReader(ByteBuffer bytes) {
+		super(bytes);
+	}
+
+	/**
+	 * Reads the reviews and hands them to the handler. Stops after the review
+	 * array, the rest of the input is not read.
+	 *
+	 * @param handler
+	 * @return number of reviews read, 0 if the file has no review array
+	 * @throws IOException
+	 * 			- if reading fails or the JSON is malformed
+	 */
+	public int read(Handler handler) throws IOException {
+		if (!enterReviews()) {
+			return 0;
+		}
+		int count = 0;
+		do {
+			readReview(handler);
+			count++;
+		} while (nextElement());
+		return count;
+	}
+
+	/**
+	 * Finds ranges of the review array that can be read in parallel, see
+	 * readRange. The reviews are only skipped over, no strings are made.
+	 *
+	 * @param bytesPerRange
+	 * 			- ranges are cut after the first review that reaches this size
+	 * @return start and end offset of each range, one pair after another;
+	 * 			empty if the file has no review array
+	 * @throws IOException
+	 * 			- if reading fails or the JSON is malformed
+	 */
+	public long[] split(long bytesPerRange) throws IOException {
+		long[] ranges = new long[16];
+		int n = 0;
+		if (!enterReviews()) {
+			return new long[0];
+		}
+		long start = -1L;
+		long end;
+		do {
+			// Skip the whitespace, so the range starts at the review
+			peek();
+			if (start < 0) {
+				start = getOffset();
+			}
+			skipValue();
+			end = getOffset();
+			if (end - start >= bytesPerRange) {
+				if (n == ranges.length) {
+					ranges = Arrays.copyOf(ranges, n * 2);
+				}
+				ranges[n++] = start;
+				ranges[n++] = end;
+				start = -1L;
+			}
+		} while (nextElement());
+		if (start >= 0) {
+			if (n == ranges.length) {
+				ranges = Arrays.copyOf(ranges, n + 2);
+			}
+			ranges[n++] = start;
+			ranges[n++] = end;
+		}
+		return Arrays.copyOf(ranges, n);
+	}
+
+	/**
+	 * Reads a range found by split(). The reader must have been made on the
+	 * bytes of the same file, positioned at the start of the range and limited
+	 * to its end.
+	 *
+	 * @param handler
+	 * @return number of reviews read
+	 * @throws IOException
+	 * 			- if reading fails or the JSON is malformed
+	 */
+	public int readRange(Handler handler) throws IOException {
+		int count = 0;
+		do {
+			readReview(handler);
+			count++;
+		} while (nextInRange());
+		return count;
+	}
+
+	/**
+	 * Steps into the review array, at its first review.
+	 *
+	 * @return false if the file has no reviews
+	 */
+	private boolean enterReviews() throws IOException {
+		skipByteOrderMark();
+		return enterObject() && findKey("reviewDetails") && enterObject()
+				&& findKey("reviewCollection") && enterObject() && findKey("review") && enterArray();
+	}
+
+	/**
+	 * Parses one review object and passes it on.
+	 */
+	private void readReview(Handler handler) throws IOException {
+		if (!isObjectNext()) {
+			// Not a review, e.g. null
+			skipValue();
+			return;
+		}
+		enterObject();
+		String hotelId = null;
+		String reviewId = null;
+		int rating = 0;
+		String reviewTitle = null;
+		String reviewText = null;
+		boolean isRecom = false;
+		String date = null;
+		String username = null;
+		if (!isEmptyObject()) {
+			do {
+				readKey();
+				if (is("hotelId")) {
+					hotelId = readStringValue();
+				} else if (is("reviewId")) {
+					reviewId = readStringValue();
+				} else if (is("ratingOverall")) {
+					rating = (int) readLongValue();
+				} else if (is("title")) {
+					reviewTitle = readStringValue();
+				} else if (is("reviewText")) {
+					reviewText = readStringValue();
+				} else if (is("isRecommended")) {
+					isRecom = readYesValue();
+				} else if (is("reviewSubmissionTime")) {
+					date = readStringValue();
+				} else if (is("userNickname")) {
+					username = readStringValue();
+				} else {
+					skipValue();
+				}
+			} while (nextMember());
+		}
+		if (username == null || username.isEmpty()) {
+			username = "anonymous";
+		}
+		handler.review(hotelId, reviewId, rating, reviewTitle, reviewText, isRecom, date, username);
+	}
+}
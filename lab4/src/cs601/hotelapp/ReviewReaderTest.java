@@ -0,0 +1,106 @@
+package cs601.hotelapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the ReviewReader.
+ */
+public class ReviewReaderTest {
+
+	private static final String REVIEWS = "{\"reviewDetails\": {\"numberOfReviewsInThisPage\": 2,"
+			+ " \"reviewSummaryCollection\": {\"reviewSummary\": [{\"totalReviewCnt\": 2, \"tags\": [1, 2.5e3, null]}]},"
+			+ " \"reviewCollection\": {\"review\": ["
+			+ "{\"isRecommended\": \"YES\", \"reviewId\": \"r1\", \"hotelId\": \"25622\", \"ratingOverall\": 4,"
+			+ " \"title\": \"Room \\\"too\\\" small\", \"reviewText\": \"Line\\nnext \\u00e9\\/\","
+			+ " \"userNickname\": \"\", \"reviewSubmissionTime\": \"2016-06-29T17:50:24Z\","
+			+ " \"photos\": [{\"url\": \"x}]\"}], \"helpful\": false},"
+			+ "{\"isRecommended\": \"NO\", \"reviewId\": \"r2\", \"hotelId\": \"25622\", \"ratingOverall\": 2.0,"
+			+ " \"title\": \"Noisy \\ud83d\\ude00\", \"reviewText\": \"\", \"userNickname\": \"Bob\","
+			+ " \"reviewSubmissionTime\": \"2016-07-01T10:00:00Z\"}"
+			+ "]}}, \"ignored\": [1, 2, 3]}";
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testReadReviews() throws IOException {
+		String testName = "testReadReviews";
+		byte[] bytes = REVIEWS.getBytes(StandardCharsets.UTF_8);
+		// Once streamed, once in place like a mapped file
+		for (ReviewReader reader : new ReviewReader[] {
+				new ReviewReader(new ByteArrayInputStream(bytes)), new ReviewReader(ByteBuffer.wrap(bytes)) }) {
+			final List<String> reviews = new ArrayList<String>();
+			int count = reader.read(new ReviewReader.Handler() {
+				@Override
+				public void review(String hotelId, String reviewId, int rating, String reviewTitle, String reviewText,
+						boolean isRecom, String date, String username) {
+					reviews.add(hotelId + "|" + reviewId + "|" + rating + "|" + reviewTitle + "|" + reviewText + "|"
+							+ isRecom + "|" + date + "|" + username);
+				}
+			});
+
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 2, count);
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName),
+					"25622|r1|4|Room \"too\" small|Line\nnext \u00e9/|true|2016-06-29T17:50:24Z|anonymous", reviews.get(0));
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName),
+					"25622|r2|2|Noisy \ud83d\ude00||false|2016-07-01T10:00:00Z|Bob", reviews.get(1));
+		}
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testSplitReviews() throws IOException {
+		String testName = "testSplitReviews";
+		ByteBuffer bytes = ByteBuffer.wrap(REVIEWS.getBytes(StandardCharsets.UTF_8));
+		// Every range reaches one byte after its first review
+		long[] ranges = new ReviewReader(bytes.duplicate()).split(1);
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 4, ranges.length);
+		final List<String> reviewIds = new ArrayList<String>();
+		ReviewReader.Handler handler = new ReviewReader.Handler() {
+			@Override
+			public void review(String hotelId, String reviewId, int rating, String reviewTitle, String reviewText,
+					boolean isRecom, String date, String username) {
+				reviewIds.add(reviewId);
+			}
+		};
+		for (int i = 0; i < ranges.length; i += 2) {
+			ByteBuffer range = bytes.duplicate();
+			range.limit((int) ranges[i + 1]);
+			range.position((int) ranges[i]);
+			Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 1,
+					new ReviewReader(range).readRange(handler));
+		}
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), Arrays.asList("r1", "r2"), reviewIds);
+
+		// One range for the whole array
+		ranges = new ReviewReader(bytes.duplicate()).split(Long.MAX_VALUE);
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 2, ranges.length);
+		ByteBuffer range = bytes.duplicate();
+		range.limit((int) ranges[1]);
+		range.position((int) ranges[0]);
+		Assert.assertEquals(String.format("%n" + "Test Case: %s%n", testName), 2,
+				new ReviewReader(range).readRange(handler));
+	}
+
+	@Test(timeout = TestUtils.TIMEOUT)
+	public void testMalformedReviews() {
+		String testName = "testMalformedReviews";
+		String truncated = REVIEWS.substring(0, REVIEWS.indexOf("\"Noisy"));
+		try {
+			new ReviewReader(new ByteArrayInputStream(truncated.getBytes(StandardCharsets.UTF_8))).read(new ReviewReader.Handler() {
+				@Override
+				public void review(String hotelId, String reviewId, int rating, String reviewTitle, String reviewText,
+						boolean isRecom, String date, String username) {
+				}
+			});
+			Assert.fail(String.format("%n" + "Test Case: %s%n" + " Truncated input was accepted. %n", testName));
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
@@ -7,8 +7,13 @@ import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import cs601.concurrent.LockStatistics;
 import cs601.concurrent.ReentrantReadWriteLock;
+import cs601.concurrent.StripedLockManager;
 
 /**
  * Class HotelData - a data structure that stores information about hotels and
@@ -16,33 +21,84 @@ import cs601.concurrent.ReentrantReadWriteLock;
  * Allows to easily find hotel reviews for a given hotel, given the hotelID. 
  * Reviews for a given hotel id are sorted by the date and user nickname.
  *
+ * The hotel directory is guarded by its own lock, the reviews and attractions
+ * of a hotel by the striped lock of its hotel id, so reviews for different
+ * hotels are added in parallel. A thread that needs both takes the directory
+ * lock first.
  */
 public class ThreadSafeHotelData {
 
 	// FILL IN CODE - declare data structures to store hotel data
 	private final Map<String, Hotel> hotelsGivenByHotelId;
+	//Concurrent maps, hotels in different stripes add their entries at the same time
 	private final Map<String, TreeSet<Review>> reviewsGivenByHotelId;
 	private final Map<String, TreeMap<String, TouristAttraction>> attractionsGivenByHotelId;
-	private Hotel hotel;
-	private Address address;
-	private Review reviews;
-	private TouristAttraction touristAttraction;
-	private Boolean isSuccessful;
 	
-	//Created ReentrantReadWriteLock lock object
-	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	//Created ReentrantReadWriteLock lock object, guards hotelsGivenByHotelId
+	//Writer preferring, so new hotels are not starved by a steady stream of queries
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(ReentrantReadWriteLock.Policy.WRITER_PREFERRING);
+	//Locks by hotel id, guard the review set and attraction map of each hotel
+	private final StripedLockManager hotelLocks;
 	
 
 	/**
 	 * Default constructor.
 	 */
 	public ThreadSafeHotelData() {
+		this(new StripedLockManager(ReentrantReadWriteLock.Policy.WRITER_PREFERRING));
+	}
+
+	/**
+	 * Constructor for data that one thread fills, e.g. the local data of a
+	 * loading job that is merged into the shared data afterwards. It needs
+	 * no more than one stripe, and every lock costs memory.
+	 * 
+	 * @param stripes
+	 * 			- number of locks by hotel id
+	 */
+	ThreadSafeHotelData(int stripes) {
+		this(new StripedLockManager(stripes, ReentrantReadWriteLock.Policy.WRITER_PREFERRING));
+	}
+
+	private ThreadSafeHotelData(StripedLockManager hotelLocks) {
 		// FILL IN CODE
 		// Initialise all data structures
+		this.hotelLocks = hotelLocks;
 		hotelsGivenByHotelId = new HashMap<String,Hotel>();
-		reviewsGivenByHotelId = new HashMap<String,TreeSet<Review>>();
-		attractionsGivenByHotelId = new HashMap<String, TreeMap<String, TouristAttraction>>();
+		reviewsGivenByHotelId = new ConcurrentHashMap<String,TreeSet<Review>>();
+		attractionsGivenByHotelId = new ConcurrentHashMap<String, TreeMap<String, TouristAttraction>>();
+
+	}
+
+	/**
+	 * Turns collecting statistics of the data locks on or off, e.g. to find out
+	 * which methods hold the write lock longest.
+	 * 
+	 * @param enabled
+	 */
+	public void setLockStatisticsEnabled(boolean enabled) {
+		lock.setStatisticsEnabled(enabled);
+		hotelLocks.setStatisticsEnabled(enabled);
+	}
 
+	/**
+	 * 
+	 * @return - snapshot of the hotel directory lock statistics, null if they are not enabled
+	 */
+	public LockStatistics.Snapshot getLockStatistics() {
+		return lock.getStatistics();
+	}
+
+	/**
+	 * 
+	 * @param hotelId
+	 * 			- the id of the hotel
+	 * @return - snapshot of the statistics of the lock guarding this hotel's reviews
+	 * 			and attractions (shared with the other hotels of its stripe), null if
+	 * 			they are not enabled
+	 */
+	public LockStatistics.Snapshot getLockStatistics(String hotelId) {
+		return hotelLocks.getLock(hotelId).getStatistics();
 	}
 
 	/**
@@ -69,8 +125,8 @@ public class ThreadSafeHotelData {
 		lock.lockWrite();
 		try {
 			//Set the values to the address and hotel object.
-			address = new Address(streetAddress, city, state, lon, lat);
-			hotel = new Hotel(hotelId, hotelName, address);		
+			Address address = new Address(streetAddress, city, state, lon, lat);
+			Hotel hotel = new Hotel(hotelId, hotelName, address);		
 			//Add to the hotelsGivenByHotelId TreeMap.
 			hotelsGivenByHotelId.put(hotelId, hotel);
 		} finally {
@@ -105,53 +161,58 @@ public class ThreadSafeHotelData {
 	 */
 	public boolean addReview(String hotelId, String reviewId, int rating, String reviewTitle, String review,
 			boolean isRecom, String date, String username) {		
-		//With the lockWrite it is added to our HashMap safely
-		lock.lockWrite();
-		try {
-			// FILL IN CODE
-			//Initialise it to default value.
+		// FILL IN CODE
+		//Initialise it to default value.
+		boolean isSuccessful = false;
+		//Check the rating is in the correct range or not.
+		
+		if(1> rating || 5 < rating) {
+			// set the false.
 			isSuccessful = false;
-			//Check the rating is in the correct range or not.
-			
-			if(1> rating || 5 < rating) {
-				// set the false.
-				isSuccessful = false;
-			} else {
-				//Check the date is correct format or not.
-				SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-				try {
-					Date date1 = sdf.parse(date);
-					// set the true.
-					isSuccessful = true;
-				} catch (ParseException e) {
-					//e.printStackTrace();
-					System.out.println("Date is invalid!");
-				}
+		} else {
+			//Check the date is correct format or not.
+			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+			try {
+				Date date1 = sdf.parse(date);
+				// set the true.
+				isSuccessful = true;
+			} catch (ParseException e) {
+				//e.printStackTrace();
+				System.out.println("Date is invalid!");
 			}
-			// If successful is true add it.
-			//if(isSuccessful && hotelsGivenByHotelId.containsKey(hotelId)) {
-			if(isSuccessful) {
-				//Set the values to the reviews object.
-				reviews = new Review(reviewId, hotelId, reviewTitle, review, username, isRecom, date, rating);			
+		}
+		// If successful is true add it.
+		//if(isSuccessful && hotelsGivenByHotelId.containsKey(hotelId)) {
+		if(isSuccessful) {
+			//Set the values to the reviews object.
+			Review reviews = new Review(reviewId, hotelId, reviewTitle, review, username, isRecom, date, rating);			
+			//Validation ran without locking, only this hotel's stripe is locked for the insert
+			ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotelId);
+			//Readers of the hotel go on during the lookup, only an insert upgrades to the write lock
+			hotelLock.lockUpgradeableRead();
+			try {
 				//Check that if hotel id already exist or not
-				if(!(reviewsGivenByHotelId.containsKey(hotelId))) {
-					TreeSet<Review> newReviewSet = new TreeSet<Review>();
-					newReviewSet.add(reviews);
-					//Add to the reviewsGivenByHotelId TreeMap.
-					reviewsGivenByHotelId.put(hotelId, newReviewSet);
-				} else {
-					TreeSet<Review> existingReviewSet;
-					existingReviewSet = reviewsGivenByHotelId.get(hotelId);			
-					existingReviewSet.add(reviews);	
-					//Add to the reviewsGivenByHotelId TreeMap.
-					reviewsGivenByHotelId.put(hotelId, existingReviewSet);
+				TreeSet<Review> existingReviewSet = reviewsGivenByHotelId.get(hotelId);
+				if (existingReviewSet == null || !existingReviewSet.contains(reviews)) {
+					hotelLock.lockWrite();
+					try {
+						if(existingReviewSet == null) {
+							TreeSet<Review> newReviewSet = new TreeSet<Review>();
+							newReviewSet.add(reviews);
+							//Add to the reviewsGivenByHotelId TreeMap.
+							reviewsGivenByHotelId.put(hotelId, newReviewSet);
+						} else {
+							existingReviewSet.add(reviews);	
+						}
+					} finally {
+						hotelLock.unlockWrite();
+					}
 				}
+			} finally {
+				hotelLock.unlockUpgradeableRead();
 			}
-			return isSuccessful; // don't forget to change it
-			
-		} finally {
-			lock.unlockWrite();
 		}
+		return isSuccessful; // don't forget to change it
 		
 	}
 
@@ -172,27 +233,48 @@ public class ThreadSafeHotelData {
 	 * 				- the id of the hotel
 	 */
 	public void addAttraction(String attractionId, String name, double rating, String address, String hotelId){
-		//With the lockWrite it is added to our HashMap safely
-		lock.lockWrite();
+		//Set the values to the touristAttraction object.
+		TouristAttraction touristAttraction = new TouristAttraction(attractionId, name, address, rating);			
+		//Only this hotel's stripe is locked for the insert
+		ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotelId);
+		//Readers of the hotel go on during the lookup, only a change upgrades to the write lock
+		hotelLock.lockUpgradeableRead();
 		try {
-			//Set the values to the touristAttraction object.
-			touristAttraction = new TouristAttraction(attractionId, name, address, rating);			
 			//Check that if hotel id already exist or not
-			if(!(attractionsGivenByHotelId.containsKey(hotelId))) {
-				TreeMap<String, TouristAttraction> newAttractionSet = new TreeMap<String, TouristAttraction>();
-				newAttractionSet.put(attractionId, touristAttraction);
-				//Add to the attractionsGivenByHotelId TreeMap.
-				attractionsGivenByHotelId.put(hotelId, newAttractionSet);
-			} else {
-				TreeMap<String, TouristAttraction> existingAttractionSet;
-				existingAttractionSet = attractionsGivenByHotelId.get(hotelId);
-				existingAttractionSet.put(attractionId, touristAttraction);
-				//Add to the reviewsGivenByHotelId TreeMap.
-				attractionsGivenByHotelId.put(hotelId, existingAttractionSet);
-			}			
+			TreeMap<String, TouristAttraction> existingAttractionSet = attractionsGivenByHotelId.get(hotelId);
+			if (existingAttractionSet != null
+					&& isSameAttraction(existingAttractionSet.get(attractionId), touristAttraction)) {
+				// Fetched again, e.g. by refreshAttractions, and unchanged
+				return;
+			}
+			hotelLock.lockWrite();
+			try {
+				if(existingAttractionSet == null) {
+					TreeMap<String, TouristAttraction> newAttractionSet = new TreeMap<String, TouristAttraction>();
+					newAttractionSet.put(attractionId, touristAttraction);
+					//Add to the attractionsGivenByHotelId TreeMap.
+					attractionsGivenByHotelId.put(hotelId, newAttractionSet);
+				} else {
+					existingAttractionSet.put(attractionId, touristAttraction);
+				}
+			} finally {
+				hotelLock.unlockWrite();
+			}
 		} finally {
-			lock.unlockWrite();
-		}		
+			hotelLock.unlockUpgradeableRead();
+		}
+	}
+
+	/**
+	 * @param a
+	 * 			- may be null
+	 * @param b
+	 * @return true if both have the same name, address and rating
+	 */
+	private static boolean isSameAttraction(TouristAttraction a, TouristAttraction b) {
+		return a != null && a.getRating() == b.getRating()
+				&& (a.getName() == null ? b.getName() == null : a.getName().equals(b.getName()))
+				&& (a.getAddress() == null ? b.getAddress() == null : a.getAddress().equals(b.getAddress()));
 	}
 	
 	/**
@@ -206,22 +288,52 @@ public class ThreadSafeHotelData {
 		//With the lockRead it is read from HashMap and written the local variable hotelIdList ArrayList
 		lock.lockRead();
 		try {
-			//Initialise an ArrayList to store hotelIds
-			List<String> hotelIdList = new ArrayList<>();
-			//Add hotelId to ArrayList
-			for (String hotelId: hotelsGivenByHotelId.keySet()){
-				hotelIdList.add(hotelId);
-			}
-			//Sort hotelIds
-			Collections.sort(hotelIdList);
-			//return it.
-			return hotelIdList; // don't forget to change it
+			return listHotels();
 		} finally {
 			lock.unlockRead();
 		}
 		
 	}
 
+	/**
+	 * Same as getHotels(), but gives up if the read lock cannot be acquired in time.
+	 * 
+	 * @param timeout
+	 * 			- maximum time to wait for the lock
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return
+	 * @throws TimeoutException
+	 * 			- if the lock was not acquired in time
+	 * @throws InterruptedException
+	 */
+	public List<String> getHotels(long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		lockReadWithin(lock, timeout, unit);
+		try {
+			return listHotels();
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	/**
+	 * Needs to be called with the read lock held.
+	 * 
+	 * @return - sorted list of hotel ids
+	 */
+	private List<String> listHotels() {
+		//Initialise an ArrayList to store hotelIds
+		List<String> hotelIdList = new ArrayList<>();
+		//Add hotelId to ArrayList
+		for (String hotelId: hotelsGivenByHotelId.keySet()){
+			hotelIdList.add(hotelId);
+		}
+		//Sort hotelIds
+		Collections.sort(hotelIdList);
+		//return it.
+		return hotelIdList;
+	}
+
 	/**
 	 * 
 	 * @param hotelId
@@ -230,25 +342,64 @@ public class ThreadSafeHotelData {
 	 * 			- returns a String representing attractions for a particular hotel
 	 */
 	public String getAttractions(String hotelId){
+		ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotelId);
 		//With the lockRead it is read from TreeMap and written the local variable stringBuffer
 		lock.lockRead();
 		try {
-			StringBuffer stringBuffer = new StringBuffer();
-			stringBuffer.append("Attractions near " + hotelsGivenByHotelId.get(hotelId).getHotel_name() 
-					+ ", " + hotelId + "" + System.lineSeparator());
-			TreeMap<String, TouristAttraction> treeMap = attractionsGivenByHotelId.get(hotelId);
-			for (String attractionId : treeMap.keySet()) {
-				TouristAttraction touristAttraction = treeMap.get(attractionId);
-				stringBuffer.append(touristAttraction.getName() + "; " 
-								+ touristAttraction.getAddress() 
-			//					+ System.lineSeparator()
-								+ System.lineSeparator());
+			hotelLock.lockRead();
+			try {
+				return formatAttractions(hotelId);
+			} finally {
+				hotelLock.unlockRead();
 			}
-			return stringBuffer.toString();
 		} finally {
 			lock.unlockRead();
 		}
 	}
+
+	/**
+	 * Same as getAttractions(hotelId), but gives up if the read lock cannot be acquired in time.
+	 * 
+	 * @param hotelId
+	 * 			- the id of the hotel
+	 * @param timeout
+	 * 			- maximum time to wait for the lock
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return
+	 * @throws TimeoutException
+	 * 			- if the lock was not acquired in time
+	 * @throws InterruptedException
+	 */
+	public String getAttractions(String hotelId, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		lockHotelReadWithin(hotelId, timeout, unit);
+		try {
+			return formatAttractions(hotelId);
+		} finally {
+			unlockHotelRead(hotelId);
+		}
+	}
+
+	/**
+	 * Needs to be called with the directory and hotel read locks held.
+	 * 
+	 * @param hotelId
+	 * @return - attractions of the hotel as a string
+	 */
+	private String formatAttractions(String hotelId) {
+		StringBuffer stringBuffer = new StringBuffer();
+		stringBuffer.append("Attractions near " + hotelsGivenByHotelId.get(hotelId).getHotel_name() 
+				+ ", " + hotelId + "" + System.lineSeparator());
+		TreeMap<String, TouristAttraction> treeMap = attractionsGivenByHotelId.get(hotelId);
+		for (String attractionId : treeMap.keySet()) {
+			TouristAttraction touristAttraction = treeMap.get(attractionId);
+			stringBuffer.append(touristAttraction.getName() + "; " 
+							+ touristAttraction.getAddress() 
+		//					+ System.lineSeparator()
+							+ System.lineSeparator());
+		}
+		return stringBuffer.toString();
+	}
 	
 	
 	/**
@@ -266,37 +417,129 @@ public class ThreadSafeHotelData {
 	public String toString(String hotelId) {
 		// FILL IN CODE
 		
+		ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotelId);
 		//With the lockRead it is written to the local variable result
 		lock.lockRead();
 		try {
-			StringBuffer stringBuffer = new StringBuffer();
-			for (String hotel_id_hotels: hotelsGivenByHotelId.keySet()){
-				if(hotel_id_hotels.equals(hotelId)){
-					stringBuffer.append(hotelsGivenByHotelId.get(hotel_id_hotels).getHotel_name() + ": "
-							+ hotelsGivenByHotelId.get(hotel_id_hotels).getHotel_id() + "\n"
-							+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getStreet_address() + "\n"
-							+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getCity() + ", "
-							+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getState() + "\n");		
-				}
-			}
-			for (String hotel_id_review: reviewsGivenByHotelId.keySet()){
-				if(hotel_id_review.equals(hotelId)){
-					for(Review hotelIdReview : reviewsGivenByHotelId.get(hotel_id_review)){
-						stringBuffer.append("--------------------\n"
-								+ "Review by " + hotelIdReview.getUsername() + ": "
-								+ hotelIdReview.getRating() + "\n"
-								+ hotelIdReview.getReview_title() + "\n"
-								+ hotelIdReview.getReview_text() + "\n");
-					}
-				}
+			hotelLock.lockRead();
+			try {
+				return formatHotel(hotelId);
+			} finally {
+				hotelLock.unlockRead();
 			}
-			return stringBuffer.toString(); // don't forget to change to the correct string
 		} finally {
 			lock.unlockRead();
 		}
 		
 	}
 
+	/**
+	 * Same as toString(hotelId), but gives up if the read lock cannot be acquired in time.
+	 * 
+	 * @param hotelId
+	 * 			- the id of the hotel
+	 * @param timeout
+	 * 			- maximum time to wait for the lock
+	 * @param unit
+	 * 			- time unit of the timeout
+	 * @return - output string.
+	 * @throws TimeoutException
+	 * 			- if the lock was not acquired in time
+	 * @throws InterruptedException
+	 */
+	public String toString(String hotelId, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		lockHotelReadWithin(hotelId, timeout, unit);
+		try {
+			return formatHotel(hotelId);
+		} finally {
+			unlockHotelRead(hotelId);
+		}
+	}
+
+	/**
+	 * Needs to be called with the directory and hotel read locks held.
+	 * 
+	 * @param hotelId
+	 * @return - hotel information and its reviews as a string
+	 */
+	private String formatHotel(String hotelId) {
+		StringBuffer stringBuffer = new StringBuffer();
+		for (String hotel_id_hotels: hotelsGivenByHotelId.keySet()){
+			if(hotel_id_hotels.equals(hotelId)){
+				stringBuffer.append(hotelsGivenByHotelId.get(hotel_id_hotels).getHotel_name() + ": "
+						+ hotelsGivenByHotelId.get(hotel_id_hotels).getHotel_id() + "\n"
+						+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getStreet_address() + "\n"
+						+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getCity() + ", "
+						+ hotelsGivenByHotelId.get(hotel_id_hotels).getAddress().getState() + "\n");		
+			}
+		}
+		for (String hotel_id_review: reviewsGivenByHotelId.keySet()){
+			if(hotel_id_review.equals(hotelId)){
+				for(Review hotelIdReview : reviewsGivenByHotelId.get(hotel_id_review)){
+					stringBuffer.append("--------------------\n"
+							+ "Review by " + hotelIdReview.getUsername() + ": "
+							+ hotelIdReview.getRating() + "\n"
+							+ hotelIdReview.getReview_title() + "\n"
+							+ hotelIdReview.getReview_text() + "\n");
+				}
+			}
+		}
+		return stringBuffer.toString();
+	}
+
+	/**
+	 * Acquires the read lock, waiting at most the given time.
+	 * 
+	 * @param readLock
+	 * @param timeout
+	 * @param unit
+	 * @throws TimeoutException
+	 * 			- if the lock was not acquired in time
+	 * @throws InterruptedException
+	 */
+	private static void lockReadWithin(ReentrantReadWriteLock readLock, long timeout, TimeUnit unit)
+			throws TimeoutException, InterruptedException {
+		if (!readLock.tryLockRead(timeout, unit)) {
+			throw new TimeoutException("Could not acquire the read lock within " + timeout + " " + unit);
+		}
+	}
+
+	/**
+	 * Acquires the directory read lock and the read lock of the hotel, waiting
+	 * at most the given time for both together.
+	 * 
+	 * @param hotelId
+	 * @param timeout
+	 * @param unit
+	 * @throws TimeoutException
+	 * 			- if the locks were not acquired in time
+	 * @throws InterruptedException
+	 */
+	private void lockHotelReadWithin(String hotelId, long timeout, TimeUnit unit)
+			throws TimeoutException, InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		lockReadWithin(lock, timeout, unit);
+		boolean locked = false;
+		try {
+			lockReadWithin(hotelLocks.getLock(hotelId), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			locked = true;
+		} finally {
+			if (!locked) {
+				lock.unlockRead();
+			}
+		}
+	}
+
+	/**
+	 * Releases the locks acquired by lockHotelReadWithin.
+	 * 
+	 * @param hotelId
+	 */
+	private void unlockHotelRead(String hotelId) {
+		hotelLocks.getLock(hotelId).unlockRead();
+		lock.unlockRead();
+	}
+
 	/**
 	 * Save the string representation of the hotel data to the file specified by
 	 * filename in the following format: 
@@ -360,15 +603,9 @@ public class ThreadSafeHotelData {
 	public HashMap<String,String> generateQueries() {
 		lock.lockRead();
 		try {
-			String info = "";
 			HashMap<String, String> hotelLocationInfo = new HashMap<String, String>();
 			for (String hotelId : getHotels()) {
-				info = "tourist%20attractions+in+" 
-						+ hotelsGivenByHotelId.get(hotelId).getAddress().getCity().replaceAll(" ", "%20")
-						+ "&location="
-						+ hotelsGivenByHotelId.get(hotelId).getAddress().getLatitude() + ","
-						+ hotelsGivenByHotelId.get(hotelId).getAddress().getLongitude();
-				hotelLocationInfo.put(hotelId, info);
+				hotelLocationInfo.put(hotelId, query(hotelsGivenByHotelId.get(hotelId)));
 			}
 			return hotelLocationInfo;
 		} finally {
@@ -376,54 +613,174 @@ public class ThreadSafeHotelData {
 		}
 	}
 
+	/**
+	 * 
+	 * @param hotelId
+	 * @return
+	 * 		- partial query containing location information for this hotel, null if the hotel does not exist
+	 */
+	public String generateQuery(String hotelId) {
+		lock.lockRead();
+		try {
+			Hotel hotel = hotelsGivenByHotelId.get(hotelId);
+			return hotel == null ? null : query(hotel);
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	private static String query(Hotel hotel) {
+		return "tourist%20attractions+in+" 
+				+ hotel.getAddress().getCity().replaceAll(" ", "%20")
+				+ "&location="
+				+ hotel.getAddress().getLatitude() + ","
+				+ hotel.getAddress().getLongitude();
+	}
+
 	/**
 	 * 
 	 * @param localtshData
 	 * 			- Second ThreadSafeHotelData will be merged with main ThreadSafeHotelData
 	 */
 	public void mergeReviews(ThreadSafeHotelData localtshData) {
-		// I locked with lockWrite. Otherwise, deadlock occurs.
-		lock.lockWrite();
+		// The directory is only read, each hotel is written under its own stripe
+		lock.lockRead();
 		try {
-			for (String hotel_id_review: localtshData.getReviewsGivenByHotelId().keySet()){
-				if(hotelsGivenByHotelId.containsKey(hotel_id_review)){
-					reviewsGivenByHotelId.put(hotel_id_review, localtshData.getReviewsGivenByHotelId().get(hotel_id_review));
-				}
+			for (Map.Entry<String, TreeSet<Review>> entry: localtshData.getReviewsGivenByHotelId().entrySet()){
+				mergeHotelReviews(entry.getKey(), entry.getValue());
 			}
 		} finally {
-			lock.unlockWrite();
+			lock.unlockRead();
 		}
 	}
 
 	/**
+	 * Merges the reviews of one hotel. Merges of the same hotel that are run
+	 * one at a time (e.g. by WorkQueue.execute(hotelId, job)) never wait for
+	 * each other's lock.
 	 * 
-	 * @return  - reviewsGivenByHotelId 
+	 * @param hotelId
+	 * @param localtshData
+	 * 			- Second ThreadSafeHotelData, only its reviews of hotelId are merged
 	 */
-	private Map<String, TreeSet<Review>> getReviewsGivenByHotelId() {
+	public void mergeReviews(String hotelId, ThreadSafeHotelData localtshData) {
+		TreeSet<Review> reviews = localtshData.getReviewsGivenByHotelId().get(hotelId);
+		if (reviews == null) {
+			return;
+		}
 		lock.lockRead();
-		try{
-			return reviewsGivenByHotelId;
+		try {
+			mergeHotelReviews(hotelId, reviews);
 		} finally {
 			lock.unlockRead();
 		}
 	}
 
+	/**
+	 * Replaces the reviews a file gave for one hotel by those of the file's
+	 * new version, as one change: readers see either the old reviews or the
+	 * new ones.
+	 * 
+	 * @param hotelId
+	 * @param oldReviewIds
+	 * 			- ids of the reviews to remove
+	 * @param localtshData
+	 * 			- new reviews, only those of hotelId are merged; null if there are none
+	 */
+	public void replaceReviews(String hotelId, Collection<String> oldReviewIds, ThreadSafeHotelData localtshData) {
+		TreeSet<Review> reviews = localtshData == null ? null : localtshData.getReviewsGivenByHotelId().get(hotelId);
+		lock.lockRead();
+		try {
+			mergeHotelReviews(hotelId, oldReviewIds, reviews);
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	/**
+	 * Caller holds the directory read lock.
+	 */
+	private void mergeHotelReviews(String hotel_id_review, TreeSet<Review> reviews) {
+		mergeHotelReviews(hotel_id_review, null, reviews);
+	}
+
+	/**
+	 * Removes reviews of the hotel by id, then adds the reviews to those the
+	 * hotel still has; reviews of a hotel can come from several files or parts
+	 * of a file. The set is taken over if the hotel has none, so it must not
+	 * be used by the caller afterwards. Caller holds the directory read lock.
+	 * 
+	 * @param hotel_id_review
+	 * @param removedReviewIds
+	 * 			- null or empty to only add
+	 * @param reviews
+	 * 			- null to only remove
+	 */
+	private void mergeHotelReviews(String hotel_id_review, Collection<String> removedReviewIds, TreeSet<Review> reviews) {
+		if(hotelsGivenByHotelId.containsKey(hotel_id_review)){
+			ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotel_id_review);
+			hotelLock.lockWrite();
+			try {
+				TreeSet<Review> existingReviewSet = reviewsGivenByHotelId.get(hotel_id_review);
+				if (existingReviewSet != null && removedReviewIds != null && !removedReviewIds.isEmpty()) {
+					Set<String> removed = new HashSet<String>(removedReviewIds);
+					Iterator<Review> it = existingReviewSet.iterator();
+					while (it.hasNext()) {
+						if (removed.contains(it.next().getReview_id())) {
+							it.remove();
+						}
+					}
+					if (existingReviewSet.isEmpty()) {
+						// Like a hotel no review was ever loaded for
+						reviewsGivenByHotelId.remove(hotel_id_review);
+						existingReviewSet = null;
+					}
+				}
+				if (reviews == null || reviews.isEmpty()) {
+					return;
+				}
+				if (existingReviewSet == null) {
+					reviewsGivenByHotelId.put(hotel_id_review, reviews);
+				} else {
+					existingReviewSet.addAll(reviews);
+				}
+			} finally {
+				hotelLock.unlockWrite();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return  - reviewsGivenByHotelId 
+	 */
+	private Map<String, TreeSet<Review>> getReviewsGivenByHotelId() {
+		return reviewsGivenByHotelId;
+	}
+
 	/**
 	 * 
 	 * @param localtshData
 	 * 				- Second ThreadSafeHotelData will be merged with main ThreadSafeHotelData
 	 */
 	public void mergeAttractions(ThreadSafeHotelData localtshData) {
-		// I locked with lockWrite. Otherwise, deadlock occurs.
-		lock.lockWrite();
+		// The directory is only read, each hotel is written under its own stripe
+		lock.lockRead();
 		try {
-			for (String hotel_id_attractions: localtshData.getAttractionsGivenByHotelId().keySet()){
+			for (Map.Entry<String, TreeMap<String, TouristAttraction>> entry: localtshData.getAttractionsGivenByHotelId().entrySet()){
+				String hotel_id_attractions = entry.getKey();
 				if(hotelsGivenByHotelId.containsKey(hotel_id_attractions)){
-					attractionsGivenByHotelId.put(hotel_id_attractions, localtshData.getAttractionsGivenByHotelId().get(hotel_id_attractions));
+					ReentrantReadWriteLock hotelLock = hotelLocks.getLock(hotel_id_attractions);
+					hotelLock.lockWrite();
+					try {
+						attractionsGivenByHotelId.put(hotel_id_attractions, entry.getValue());
+					} finally {
+						hotelLock.unlockWrite();
+					}
 				}
 			}
 		} finally {
-			lock.unlockWrite();
+			lock.unlockRead();
 		}
 	}
 
@@ -432,12 +789,7 @@ public class ThreadSafeHotelData {
 	 * @return - attractionsGivenByHotelId
 	 */
 	private Map<String, TreeMap<String, TouristAttraction>> getAttractionsGivenByHotelId() {
-		lock.lockRead();
-		try{
-			return attractionsGivenByHotelId;
-		} finally {
-			lock.unlockRead();
-		}
+		return attractionsGivenByHotelId;
 	}
 	
 }